@@ -0,0 +1,17 @@
+package fcu.iLive.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 標記控制器參數為目前登入的用戶ID
+ * 由 JwtAuthenticationFilter 驗證令牌後放入請求屬性，控制器不需再解析令牌
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CurrentUser {
+}
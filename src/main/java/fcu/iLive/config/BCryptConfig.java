@@ -2,6 +2,99 @@
 
 package fcu.iLive.config;
 
+import fcu.iLive.util.PasswordHasher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
 public class BCryptConfig {
 
+  private static final Logger logger = LoggerFactory.getLogger(BCryptConfig.class);
+
+  // 成本下限維持原本的預設值，校正結果不會比過去弱
+  private static final int MIN_STRENGTH = 10;
+  private static final int MAX_STRENGTH = 16;
+
+  // 固定的成本，小於等於0時依目標時間自動校正
+  @Value("${security.password.bcrypt-strength:0}")
+  private int strength;
+
+  // 單次雜湊的目標時間
+  @Value("${security.password.bcrypt-target-ms:250}")
+  private long targetMillis;
+
+  // 雜湊執行緒數，小於等於0時使用CPU核心數
+  @Value("${security.password.hash-threads:0}")
+  private int hashThreads;
+
+  @Value("${security.password.hash-queue-capacity:64}")
+  private int hashQueueCapacity;
+
+  // 雜湊完成後執行資料庫作業的執行緒數
+  @Value("${security.password.io-threads:8}")
+  private int ioThreads;
+
+  private int resolvedStrength;
+
+  @Bean
+  public BCryptPasswordEncoder passwordEncoder() {
+    return new BCryptPasswordEncoder(resolveStrength());
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  public PasswordHasher passwordHasher(BCryptPasswordEncoder passwordEncoder) {
+    int threads = hashThreads > 0 ? hashThreads : Runtime.getRuntime().availableProcessors();
+    return new PasswordHasher(passwordEncoder, resolveStrength(), threads, hashQueueCapacity);
+  }
+
+  /**
+   * 雜湊完成後的後續作業（寫入用戶、發出令牌等資料庫作業）在此執行緒池執行，
+   * 不佔用雜湊執行緒等待資料庫
+   */
+  @Bean(destroyMethod = "shutdown")
+  public ExecutorService accountExecutor() {
+    AtomicInteger threadCount = new AtomicInteger();
+    return Executors.newFixedThreadPool(ioThreads, runnable -> {
+      Thread thread = new Thread(runnable, "account-io-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private synchronized int resolveStrength() {
+    if (resolvedStrength == 0) {
+      resolvedStrength = strength > 0 ? strength : calibrate();
+      logger.info("BCrypt 成本設定為 {}", resolvedStrength);
+    }
+    return resolvedStrength;
+  }
+
+  /**
+   * 依目前硬體找出雜湊時間不超過目標時間的最大成本
+   * 成本每加1雜湊時間約加倍
+   */
+  private int calibrate() {
+    String sample = "bcrypt-calibration";
+    new BCryptPasswordEncoder(MIN_STRENGTH).encode(sample);
+
+    int cost = MIN_STRENGTH;
+    while (cost < MAX_STRENGTH) {
+      long start = System.nanoTime();
+      new BCryptPasswordEncoder(cost).encode(sample);
+      long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+      if (elapsedMillis * 2 > targetMillis) {
+        break;
+      }
+      cost++;
+    }
+    return cost;
+  }
 }
@@ -0,0 +1,38 @@
+package fcu.iLive.config;
+
+import fcu.iLive.annotation.CurrentUser;
+import fcu.iLive.filter.JwtAuthenticationFilter;
+import org.springframework.core.MethodParameter;
+import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * 解析 @CurrentUser 參數
+ * 直接讀取驗證過濾器放入的用戶ID，不重新解析令牌
+ */
+public class CurrentUserArgumentResolver implements HandlerMethodArgumentResolver {
+
+  @Override
+  public boolean supportsParameter(MethodParameter parameter) {
+    Class<?> type = parameter.getParameterType();
+    return parameter.hasParameterAnnotation(CurrentUser.class)
+        && (type == int.class || type == Integer.class);
+  }
+
+  @Override
+  public Object resolveArgument(MethodParameter parameter,
+                                ModelAndViewContainer mavContainer,
+                                NativeWebRequest webRequest,
+                                WebDataBinderFactory binderFactory) {
+    Object userId = webRequest.getAttribute(
+        JwtAuthenticationFilter.USER_ID_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    if (userId == null) {
+      throw new AuthenticationCredentialsNotFoundException("未提供驗證令牌");
+    }
+    return userId;
+  }
+}
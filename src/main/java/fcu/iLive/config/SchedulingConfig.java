@@ -1,15 +1,19 @@
 package fcu.iLive.config;
 
-import fcu.iLive.service.order.OrderService;
+import fcu.iLive.service.product.StockLockExpiryService;
+import fcu.iLive.service.product.StockLockService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.SchedulingConfigurer;
 import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 import org.springframework.scheduling.annotation.Scheduled;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -20,7 +24,17 @@ public class SchedulingConfig implements SchedulingConfigurer {
   private static final Logger logger = LoggerFactory.getLogger(SchedulingConfig.class);
 
   @Autowired
-  private OrderService orderService;
+  private StockLockExpiryService expiryService;
+
+  @Autowired
+  private StockLockService stockLockService;
+
+  // 每次交易處理的逾期訂單數量
+  @Value("${stock.lock.expiry.batch-size:100}")
+  private int expiryBatchSize;
+
+  @Value("${stock.lock.expiry.retry-delay-ms:30000}")
+  private long expiryRetryDelayMillis;
 
   /**
    * 配置排程任務的執行器
@@ -38,20 +52,21 @@ public class SchedulingConfig implements SchedulingConfigurer {
   }
 
   /**
-   * 處理過期訂單的排程任務
-   * cron表達式：每分鐘執行一次
+   * 處理逾期訂單的排程任務
+   * 每次推進庫存鎖定的時間輪，已到期的訂單分批釋放庫存並取消
    */
-  //@Scheduled(cron = "0 * * * * ?")  // 每分鐘的第0秒執行
-  @Scheduled(cron = "0 */30 * * * ?")  // 每30分鐘執行
-  //@Scheduled(fixedRate = 60000)    // 固定速率執行
-  //@Scheduled(fixedDelay = 60000)   // 固定延遲執行
+  @Scheduled(fixedDelayString = "${stock.lock.expiry.tick-ms:1000}")
   public void handleExpiredOrders() {
-    try {
-      logger.info("開始處理過期訂單...");
-      orderService.handleExpiredOrders();
-      logger.info("過期訂單處理完成");
-    } catch (Exception e) {
-      logger.error("處理過期訂單時發生錯誤：", e);
+    List<Integer> expired = expiryService.pollExpired();
+    for (int from = 0; from < expired.size(); from += expiryBatchSize) {
+      List<Integer> batch = expired.subList(from, Math.min(from + expiryBatchSize, expired.size()));
+      try {
+        int released = stockLockService.expireOrders(batch);
+        logger.info("已釋放 {} 筆逾期訂單的 {} 筆庫存鎖定", batch.size(), released);
+      } catch (Exception e) {
+        logger.error("處理逾期訂單時發生錯誤，稍後重試：", e);
+        expiryService.retryLater(new ArrayList<>(batch), expiryRetryDelayMillis);
+      }
     }
   }
-}
\ No newline at end of file
+}
@@ -1,14 +1,16 @@
 package fcu.iLive.config;
 
 import fcu.iLive.filter.JwtAuthenticationFilter;
+import fcu.iLive.service.user.RefreshTokenStore;
 import fcu.iLive.util.JwtUtil;
+import fcu.iLive.util.VerifiedTokenCache;
+import jakarta.servlet.DispatcherType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
@@ -31,6 +33,12 @@ public class SecurityConfig {
   @Autowired
   private JwtUtil jwtUtil;
 
+  @Autowired
+  private VerifiedTokenCache tokenCache;
+
+  @Autowired
+  private RefreshTokenStore refreshTokenStore;
+
   @Bean
   public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
     http
@@ -38,6 +46,9 @@ public class SecurityConfig {
             .csrf(AbstractHttpConfigurer::disable)
             .sessionManagement(session -> session.sessionCreationPolicy(STATELESS))
             .authorizeHttpRequests(auth -> auth
+                    // 非同步回應與錯誤頁面的後續分派，原始請求已通過授權；
+                    // JWT過濾器不處理這些分派，STATELESS下也不保存安全上下文
+                    .dispatcherTypeMatchers(DispatcherType.ASYNC, DispatcherType.ERROR).permitAll()
                     // 靜態資源和錯誤頁面
                     .requestMatchers(
                             "/",
@@ -71,7 +82,7 @@ public class SecurityConfig {
                     .anyRequest().permitAll()
             )
             .addFilterBefore(
-                    new JwtAuthenticationFilter(jwtUtil),
+                    new JwtAuthenticationFilter(jwtUtil, tokenCache, refreshTokenStore),
                     UsernamePasswordAuthenticationFilter.class
             )
             .exceptionHandling(exceptions -> exceptions
@@ -134,9 +145,4 @@ public class SecurityConfig {
     source.registerCorsConfiguration("/**", configuration);
     return source;
   }
-
-  @Bean
-  public BCryptPasswordEncoder passwordEncoder() {
-    return new BCryptPasswordEncoder();
-  }
 }
@@ -2,6 +2,21 @@
 
 package fcu.iLive.constant;
 
-public class OrderStatusEnum {
+/**
+ * 訂單狀態，對應 OrderStatus 資料表的 StatusID
+ */
+public enum OrderStatusEnum {
+  PENDING_PAYMENT(1),  // 待付款
+  PAID(3),             // 已付款
+  CANCELLED(4);        // 已取消
 
+  private final int id;
+
+  OrderStatusEnum(int id) {
+    this.id = id;
+  }
+
+  public int getId() {
+    return id;
+  }
 }
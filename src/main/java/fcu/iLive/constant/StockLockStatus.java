@@ -0,0 +1,49 @@
+//# 庫存鎖定狀態列舉
+
+package fcu.iLive.constant;
+
+/**
+ * 庫存鎖定狀態，對應 StockLocks 資料表的 StatusId
+ * 只有鎖定中的記錄可以轉換狀態，已付款、已取消、已逾期皆為終止狀態
+ */
+public enum StockLockStatus {
+  LOCKED(1),     // 下單鎖定
+  PAID(2),       // 已付款，庫存已扣減
+  CANCELLED(3),  // 已取消，庫存已釋放
+  EXPIRED(4);    // 已逾期，庫存已釋放
+
+  private final int id;
+
+  StockLockStatus(int id) {
+    this.id = id;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * 記錄是否仍佔用庫存，對應 IsValid 欄位
+   */
+  public boolean isValid() {
+    return this == LOCKED;
+  }
+
+  /**
+   * 是否允許轉換為指定狀態
+   * @param target 目標狀態
+   * @return 是否允許
+   */
+  public boolean canTransitionTo(StockLockStatus target) {
+    return this == LOCKED && target != LOCKED;
+  }
+
+  public static StockLockStatus fromId(int id) {
+    for (StockLockStatus status : values()) {
+      if (status.id == id) {
+        return status;
+      }
+    }
+    throw new IllegalArgumentException("Unknown stock lock status: " + id);
+  }
+}
@@ -3,7 +3,9 @@
 // 後台商品管理控制器
 package fcu.iLive.controller.admin;
 
+import fcu.iLive.exception.BusinessException;
 import fcu.iLive.model.product.Product;
+import fcu.iLive.model.product.ProductPage;
 import fcu.iLive.service.product.ProductService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -57,6 +59,23 @@ public class ProductController {
     }
   }
 
+  // 以游標分頁取得商品摘要（後台管理用，包含下架商品）
+  @GetMapping("/page")
+  public ResponseEntity<ProductPage> getProductPage(
+      @RequestParam(required = false) String cursor,
+      @RequestParam(required = false) Integer size,
+      @RequestParam(required = false) String sort,
+      @RequestParam(required = false) String order) {
+    try {
+      ProductPage page = productService.getProductPage(false, sort, order, cursor, size);
+      return new ResponseEntity<>(page, HttpStatus.OK);
+    } catch (BusinessException e) {
+      return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+    } catch (Exception e) {
+      return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+  }
+
   // 更新商品資訊
   @PutMapping("/{id}")
   public ResponseEntity<Void> updateProduct(@PathVariable("id") int productId,
@@ -1,14 +1,14 @@
 package fcu.iLive.controller.user;
 
+import fcu.iLive.annotation.CurrentUser;
 import fcu.iLive.model.order.Order;
+import fcu.iLive.model.order.OrderPage;
 import fcu.iLive.service.order.OrderService;
-import fcu.iLive.util.JwtUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -22,27 +22,21 @@ public class OrderController {
   @Autowired
   private OrderService orderService;
 
-  @Autowired
-  private JwtUtil jwtUtil;
-
   /**
    * 創建訂單
    * 從購物車創建新訂單，並自動鎖定庫存
    *
-   * @param token JWT令牌
+   * @param userId 目前登入的用戶ID
    * @param requestMap 請求參數，包含配送地址
    * @return 訂單創建結果
    */
   @PostMapping
   public ResponseEntity<Map<String, Object>> createOrder(
-      @RequestHeader("Authorization") String token,
+      @CurrentUser int userId,
       @RequestBody Map<String, String> requestMap) {
 
     Map<String, Object> response = new HashMap<>();
     try {
-      // 驗證用戶
-      int userId = jwtUtil.getUserIdFromToken(token.substring(7));
-
       // 獲取配送地址
       String shippingAddress = requestMap.get("shippingAddress");
       if (shippingAddress == null || shippingAddress.trim().isEmpty()) {
@@ -71,22 +65,19 @@ public class OrderController {
    * 處理訂單付款
    * 根據不同的付款方式進行相應的處理
    *
-   * @param token JWT令牌
+   * @param userId 目前登入的用戶ID
    * @param orderId 訂單ID
    * @param paymentInfo 付款信息，包含付款方式和相關驗證數據
    * @return 付款處理結果
    */
   @PostMapping("/{orderId}/payment")
   public ResponseEntity<Map<String, Object>> processPayment(
-      @RequestHeader("Authorization") String token,
+      @CurrentUser int userId,
       @PathVariable int orderId,
       @RequestBody Map<String, String> paymentInfo) {
 
     Map<String, Object> response = new HashMap<>();
     try {
-      // 解析用戶ID
-      int userId = jwtUtil.getUserIdFromToken(token.substring(7));
-
       // 獲取並驗證付款方式
       String paymentMethod = paymentInfo.get("paymentMethod");
       if (paymentMethod == null || paymentMethod.trim().isEmpty()) {
@@ -130,18 +121,17 @@ public class OrderController {
    * 取消訂單
    * 取消訂單並釋放庫存鎖定
    *
-   * @param token JWT令牌
+   * @param userId 目前登入的用戶ID
    * @param orderId 訂單ID
    * @return 取消結果
    */
   @PostMapping("/{orderId}/cancel")
   public ResponseEntity<Map<String, Object>> cancelOrder(
-      @RequestHeader("Authorization") String token,
+      @CurrentUser int userId,
       @PathVariable int orderId) {
 
     Map<String, Object> response = new HashMap<>();
     try {
-      int userId = jwtUtil.getUserIdFromToken(token.substring(7));
       orderService.cancelOrder(orderId, userId);
 
       response.put("success", true);
@@ -158,18 +148,17 @@ public class OrderController {
   /**
    * 獲取訂單詳情
    *
-   * @param token JWT令牌
+   * @param userId 目前登入的用戶ID
    * @param orderId 訂單ID
    * @return 訂單詳細信息
    */
   @GetMapping("/{orderId}")
   public ResponseEntity<Map<String, Object>> getOrder(
-      @RequestHeader("Authorization") String token,
+      @CurrentUser int userId,
       @PathVariable int orderId) {
 
     Map<String, Object> response = new HashMap<>();
     try {
-      int userId = jwtUtil.getUserIdFromToken(token.substring(7));
       Order order = orderService.getOrderById(orderId, userId);
 
       response.put("success", true);
@@ -184,24 +173,31 @@ public class OrderController {
   }
 
   /**
-   * 獲取用戶所有訂單
+   * 分頁獲取用戶訂單
    *
-   * @param token JWT令牌
+   * @param userId 目前登入的用戶ID
+   * @param page 頁碼，從1開始
+   * @param size 每頁筆數
+   * @param summary 是否只回傳訂單摘要（不含訂單項目）
    * @return 訂單列表
    */
   @GetMapping
   public ResponseEntity<Map<String, Object>> getUserOrders(
-      @RequestHeader("Authorization") String token) {
+      @CurrentUser int userId,
+      @RequestParam(defaultValue = "1") int page,
+      @RequestParam(required = false) Integer size,
+      @RequestParam(defaultValue = "false") boolean summary) {
 
     Map<String, Object> response = new HashMap<>();
     try {
-      int userId = jwtUtil.getUserIdFromToken(token.substring(7));
-      List<Order> orders = orderService.getUserOrders(userId);
+      OrderPage orders = orderService.getUserOrders(userId, page, size, summary);
 
       response.put("success", true);
       response.put("data", Map.of(
-          "orders", orders,
-          "total", orders.size()
+          "orders", orders.getOrders(),
+          "total", orders.getTotal(),
+          "page", orders.getPage(),
+          "size", orders.getSize()
       ));
 
       return ResponseEntity.ok(response);
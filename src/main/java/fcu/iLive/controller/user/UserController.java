@@ -1,8 +1,14 @@
 package fcu.iLive.controller.user;
 
+import fcu.iLive.exception.RateLimitExceededException;
+import fcu.iLive.exception.ServiceUnavailableException;
 import fcu.iLive.model.user.User;
 import fcu.iLive.service.user.UserService;
+import fcu.iLive.util.JwtUtil;
+import fcu.iLive.util.LoginRateLimiter;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -10,6 +16,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api/v1/users")
@@ -18,47 +26,102 @@ public class UserController {
 
   private static final Logger logger = LoggerFactory.getLogger(UserController.class);
 
+  // 密碼雜湊佇列已滿時建議用戶端重試的秒數
+  private static final int RETRY_AFTER_SECONDS = 1;
+
   @Autowired
   private UserService userService;
 
+  @Autowired
+  private JwtUtil jwtUtil;
+
+  @Autowired
+  private LoginRateLimiter loginRateLimiter;
+
   @PostMapping("/register")
-  public ResponseEntity<?> register(@RequestBody User user) {
+  public CompletableFuture<ResponseEntity<?>> register(@RequestBody User user) {
     try {
       logger.info("Registering new user: {}", user.getUsername());
-      User registeredUser = userService.register(user);
-      logger.info("User registered successfully: {}", registeredUser.getUsername());
-      return ResponseEntity.ok()
-              .body(Map.of(
-                      "message", "註冊成功",
-                      "user", registeredUser
-              ));
+      return userService.register(user)
+          .<ResponseEntity<?>>thenApply(registeredUser -> {
+            logger.info("User registered successfully: {}", registeredUser.getUsername());
+            return ResponseEntity.ok()
+                    .body(Map.of(
+                            "message", "註冊成功",
+                            "user", registeredUser
+                    ));
+          })
+          .exceptionally(e -> registerFailed(user, e));
     } catch (Exception e) {
-      logger.error("Registration failed for user: {}", user.getUsername(), e);
-      return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-              .body(Map.of("message", e.getMessage()));
+      return CompletableFuture.completedFuture(registerFailed(user, e));
     }
   }
 
   @PostMapping("/login")
-  public ResponseEntity<?> login(@RequestBody Map<String, String> loginRequest) {
-    try {
-      String username = loginRequest.get("username");
-      String password = loginRequest.get("password");
+  public CompletableFuture<ResponseEntity<?>> login(
+          @RequestBody Map<String, String> loginRequest,
+          HttpServletRequest request) {
+    String username = loginRequest.get("username");
+    String password = loginRequest.get("password");
+
+    if (username == null || password == null) {
+      return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+              .body(Map.of("message", "用戶名和密碼不能為空")));
+    }
 
-      if (username == null || password == null) {
-        return ResponseEntity.badRequest()
-                .body(Map.of("message", "用戶名和密碼不能為空"));
-      }
+    try {
+      // 在密碼雜湊前限制嘗試頻率
+      loginRateLimiter.acquire(username, request.getRemoteAddr());
+    } catch (RateLimitExceededException e) {
+      logger.warn("Login throttled for user: {} from {}", username, request.getRemoteAddr());
+      return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+              .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+              .body(Map.of("message", e.getMessage())));
+    }
 
+    try {
       logger.info("Login attempt for user: {}", username);
-      Map<String, Object> response = userService.login(username, password);
-      logger.info("User logged in successfully: {}", username);
-      return ResponseEntity.ok(response);
+      return userService.login(username, password)
+          .<ResponseEntity<?>>thenApply(response -> {
+            logger.info("User logged in successfully: {}", username);
+            return ResponseEntity.ok(response);
+          })
+          .exceptionally(e -> loginFailed(username, e));
     } catch (Exception e) {
-      logger.error("Login failed for user: {}", loginRequest.get("username"), e);
-      return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-              .body(Map.of("message", e.getMessage()));
+      return CompletableFuture.completedFuture(loginFailed(username, e));
+    }
+  }
+
+  private ResponseEntity<?> registerFailed(User user, Throwable e) {
+    Throwable cause = unwrap(e);
+    if (cause instanceof ServiceUnavailableException) {
+      logger.warn("Registration rejected, password hashing saturated: {}", user.getUsername());
+      return serviceUnavailable(cause);
     }
+    logger.error("Registration failed for user: {}", user.getUsername(), cause);
+    return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+            .body(Map.of("message", cause.getMessage()));
+  }
+
+  private ResponseEntity<?> loginFailed(String username, Throwable e) {
+    Throwable cause = unwrap(e);
+    if (cause instanceof ServiceUnavailableException) {
+      logger.warn("Login rejected, password hashing saturated: {}", username);
+      return serviceUnavailable(cause);
+    }
+    logger.error("Login failed for user: {}", username, cause);
+    return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+            .body(Map.of("message", cause.getMessage()));
+  }
+
+  private ResponseEntity<?> serviceUnavailable(Throwable cause) {
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS))
+            .body(Map.of("message", cause.getMessage()));
+  }
+
+  private static Throwable unwrap(Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
   }
 
   @PostMapping("/refresh-token")
@@ -109,34 +172,54 @@ public class UserController {
   }
 
   @PutMapping("/{userId}/password")
-  public ResponseEntity<?> changePassword(
+  public CompletableFuture<ResponseEntity<?>> changePassword(
           @PathVariable int userId,
           @RequestBody Map<String, String> passwords) {
-    try {
-      String oldPassword = passwords.get("oldPassword");
-      String newPassword = passwords.get("newPassword");
+    String oldPassword = passwords.get("oldPassword");
+    String newPassword = passwords.get("newPassword");
 
-      if (oldPassword == null || newPassword == null) {
-        return ResponseEntity.badRequest()
-                .body(Map.of("message", "舊密碼和新密碼不能為空"));
-      }
+    if (oldPassword == null || newPassword == null) {
+      return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+              .body(Map.of("message", "舊密碼和新密碼不能為空")));
+    }
 
+    try {
       logger.info("Changing password for user ID: {}", userId);
-      userService.changePassword(userId, oldPassword, newPassword);
-      logger.info("Password changed successfully for user ID: {}", userId);
-      return ResponseEntity.ok()
-              .body(Map.of("message", "密碼修改成功"));
+      return userService.changePassword(userId, oldPassword, newPassword)
+          .<ResponseEntity<?>>thenApply(ignored -> {
+            logger.info("Password changed successfully for user ID: {}", userId);
+            return ResponseEntity.ok()
+                    .body(Map.of("message", "密碼修改成功"));
+          })
+          .exceptionally(e -> changePasswordFailed(userId, e));
     } catch (Exception e) {
-      logger.error("Failed to change password for user ID: {}", userId, e);
-      return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-              .body(Map.of("message", e.getMessage()));
+      return CompletableFuture.completedFuture(changePasswordFailed(userId, e));
     }
   }
 
+  private ResponseEntity<?> changePasswordFailed(int userId, Throwable e) {
+    Throwable cause = unwrap(e);
+    if (cause instanceof ServiceUnavailableException) {
+      logger.warn("Password change rejected, password hashing saturated: {}", userId);
+      return serviceUnavailable(cause);
+    }
+    logger.error("Failed to change password for user ID: {}", userId, cause);
+    return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+            .body(Map.of("message", cause.getMessage()));
+  }
+
   @PostMapping("/logout")
-  public ResponseEntity<?> logout() {
+  public ResponseEntity<?> logout(
+          @RequestBody(required = false) Map<String, String> logoutRequest,
+          @RequestHeader(value = "Authorization", required = false) String authHeader) {
     try {
       logger.info("User logout");
+      // 優先使用刷新令牌，沒有時改用存取令牌找出令牌家族
+      String token = logoutRequest != null ? logoutRequest.get("refreshToken") : null;
+      if (token == null) {
+        token = jwtUtil.getTokenFromHeader(authHeader);
+      }
+      userService.logout(token);
       return ResponseEntity.ok()
               .body(Map.of("message", "登出成功"));
     } catch (Exception e) {
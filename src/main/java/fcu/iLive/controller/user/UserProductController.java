@@ -1,7 +1,9 @@
 package fcu.iLive.controller.user;
 
 
+import fcu.iLive.exception.BusinessException;
 import fcu.iLive.model.product.Product;
+import fcu.iLive.model.product.ProductPage;
 import fcu.iLive.service.product.ProductService;
 import java.math.BigDecimal;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,6 +12,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/v1/products")
@@ -30,6 +33,64 @@ public class UserProductController {
     }
   }
 
+  // 以游標分頁取得上架商品摘要（前台展示用）
+  // 範例 URL: /api/v1/products/page?sort=price&order=desc&size=20&cursor=...
+  @GetMapping("/page")
+  public ResponseEntity<ProductPage> getPublishedProductPage(
+      @RequestParam(required = false) String cursor,
+      @RequestParam(required = false) Integer size,
+      @RequestParam(required = false) String sort,
+      @RequestParam(required = false) String order) {
+    try {
+      ProductPage page = productService.getProductPage(true, sort, order, cursor, size);
+      return new ResponseEntity<>(page, HttpStatus.OK);
+    } catch (BusinessException e) {
+      return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+    } catch (Exception e) {
+      return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  // 批次取得多個商品資訊，依傳入順序回傳（購物車、收藏清單使用）
+  // 範例 URL: /api/v1/products/batch?ids=3,1,2
+  @GetMapping("/batch")
+  public ResponseEntity<List<Product>> getProducts(@RequestParam List<Integer> ids) {
+    try {
+      return new ResponseEntity<>(productService.getProducts(ids), HttpStatus.OK);
+    } catch (BusinessException e) {
+      return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+    } catch (Exception e) {
+      return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  // 批次查詢商品可用庫存，不查詢資料庫
+  // 範例 URL: /api/v1/products/availability?ids=1,2,3
+  @GetMapping("/availability")
+  public ResponseEntity<Map<Integer, Integer>> getAvailability(@RequestParam List<Integer> ids) {
+    try {
+      return new ResponseEntity<>(productService.getAvailability(ids), HttpStatus.OK);
+    } catch (BusinessException e) {
+      return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+    } catch (Exception e) {
+      return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  // 查詢單一商品可用庫存，不查詢資料庫
+  @GetMapping("/{id}/availability")
+  public ResponseEntity<Map<String, Integer>> getProductAvailability(@PathVariable("id") int productId) {
+    try {
+      Integer available = productService.getAvailability(productId);
+      if (available == null) {
+        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+      }
+      return new ResponseEntity<>(Map.of("productId", productId, "availableStock", available), HttpStatus.OK);
+    } catch (Exception e) {
+      return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+  }
+
   // 取得單一商品資訊（前台展示用）
   @GetMapping("/{id}")
   public ResponseEntity<Product> getProductDetails(@PathVariable("id") int productId) {
@@ -57,15 +118,19 @@ public class UserProductController {
   }
 
   // 商品搜尋功能
-  // 範例 URL: /api/v1/products/search?keyword=手機&minPrice=1000&maxPrice=5000
+  // 範例 URL: /api/v1/products/search?keyword=手機&minPrice=1000&maxPrice=5000&limit=20&offset=0
   @GetMapping("/search")
   public ResponseEntity<List<Product>> searchProducts(
       @RequestParam(required = false) String keyword,
       @RequestParam(required = false) BigDecimal minPrice,
-      @RequestParam(required = false) BigDecimal maxPrice) {
+      @RequestParam(required = false) BigDecimal maxPrice,
+      @RequestParam(required = false) Integer limit,
+      @RequestParam(defaultValue = "0") int offset) {
     try {
-      List<Product> products = productService.searchProducts(keyword, minPrice, maxPrice);
+      List<Product> products = productService.searchProducts(keyword, minPrice, maxPrice, offset, limit);
       return new ResponseEntity<>(products, HttpStatus.OK);
+    } catch (BusinessException e) {
+      return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
     } catch (Exception e) {
       return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
     }
@@ -0,0 +1,18 @@
+package fcu.iLive.exception;
+
+/**
+ * 請求頻率超過限制，呼叫端應在指定秒數後重試
+ */
+public class RateLimitExceededException extends RuntimeException {
+
+  private final long retryAfterSeconds;
+
+  public RateLimitExceededException(String message, long retryAfterSeconds) {
+    super(message);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+}
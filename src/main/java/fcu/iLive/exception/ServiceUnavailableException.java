@@ -0,0 +1,10 @@
+package fcu.iLive.exception;
+
+/**
+ * 服務暫時無法處理請求（例如工作佇列已滿），呼叫端應稍後重試
+ */
+public class ServiceUnavailableException extends RuntimeException {
+  public ServiceUnavailableException(String message) {
+    super(message);
+  }
+}
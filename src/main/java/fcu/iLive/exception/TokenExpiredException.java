@@ -0,0 +1,10 @@
+package fcu.iLive.exception;
+
+/**
+ * 令牌簽章正確但已過期
+ */
+public class TokenExpiredException extends JwtException {
+  public TokenExpiredException(String message) {
+    super(message);
+  }
+}
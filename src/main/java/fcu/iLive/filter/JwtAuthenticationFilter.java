@@ -1,6 +1,11 @@
 package fcu.iLive.filter;
 
+import fcu.iLive.exception.JwtException;
+import fcu.iLive.exception.TokenExpiredException;
+import fcu.iLive.model.jwt.VerifiedToken;
+import fcu.iLive.service.user.RefreshTokenStore;
 import fcu.iLive.util.JwtUtil;
+import fcu.iLive.util.VerifiedTokenCache;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -17,10 +22,18 @@ import java.util.ArrayList;
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
   private static final Logger logger = LoggerFactory.getLogger(JwtAuthenticationFilter.class);
+
+  // 驗證後的用戶ID請求屬性，供 @CurrentUser 參數使用
+  public static final String USER_ID_ATTRIBUTE = JwtAuthenticationFilter.class.getName() + ".USER_ID";
   private final JwtUtil jwtUtil;
+  private final VerifiedTokenCache tokenCache;
+  private final RefreshTokenStore refreshTokenStore;
 
-  public JwtAuthenticationFilter(JwtUtil jwtUtil) {
+  public JwtAuthenticationFilter(JwtUtil jwtUtil, VerifiedTokenCache tokenCache,
+                                 RefreshTokenStore refreshTokenStore) {
     this.jwtUtil = jwtUtil;
+    this.tokenCache = tokenCache;
+    this.refreshTokenStore = refreshTokenStore;
   }
 
   @Override
@@ -44,14 +57,22 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         if (token != null) {
           try {
-            int userId = jwtUtil.getUserIdFromToken(token);
+            // 一次解析同時驗證簽章與取得過期時間，重複使用的令牌由快取取得
+            VerifiedToken verified = tokenCache.verify(token);
+            int userId = verified.getUserId();
 
             if (userId != 0) {
-              if (jwtUtil.isTokenExpired(token)) {
+              if (verified.isExpired()) {
                 handleTokenExpired(response);
                 return;
               }
 
+              // 已登出或偵測到刷新令牌重用的令牌家族，記憶體索引查詢
+              if (verified.getFamilyId() != null && refreshTokenStore.isRevoked(verified.getFamilyId())) {
+                handleTokenValidationError(response, new JwtException("令牌已撤銷"));
+                return;
+              }
+
               UsernamePasswordAuthenticationToken authentication =
                       new UsernamePasswordAuthenticationToken(
                               String.valueOf(userId),
@@ -60,8 +81,12 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                       );
 
               SecurityContextHolder.getContext().setAuthentication(authentication);
+              request.setAttribute(USER_ID_ATTRIBUTE, userId);
               logger.debug("User authenticated: {}", userId);
             }
+          } catch (TokenExpiredException e) {
+            handleTokenExpired(response);
+            return;
           } catch (Exception e) {
             handleTokenValidationError(response, e);
             return;
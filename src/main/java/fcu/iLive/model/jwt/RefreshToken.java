@@ -0,0 +1,20 @@
+//刷新令牌記錄
+
+package fcu.iLive.model.jwt;
+
+import java.sql.Timestamp;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RefreshToken {
+  private String tokenId;       // 令牌ID（jti）
+  private String familyId;      // 令牌家族ID，登入時產生，輪替時沿用
+  private int userId;           // 用戶ID
+  private Timestamp expiresAt;  // 過期時間
+  private boolean used;         // 是否已輪替過
+  private boolean revoked;      // 家族是否已撤銷
+}
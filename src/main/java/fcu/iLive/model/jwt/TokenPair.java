@@ -9,5 +9,11 @@ public class TokenPair {
     this.refreshToken = refreshToken;
   }
 
-  // getters and setters
+  public String getAccessToken() {
+    return accessToken;
+  }
+
+  public String getRefreshToken() {
+    return refreshToken;
+  }
 }
@@ -0,0 +1,42 @@
+package fcu.iLive.model.jwt;
+
+import java.util.Date;
+
+/**
+ * 驗證簽章後的令牌內容
+ * 一次解析同時取得用戶ID與過期時間
+ * familyId 與 tokenId 只有在令牌屬於刷新令牌家族時才有值
+ */
+public class VerifiedToken {
+  private final int userId;
+  private final Date expiration;
+  private final String familyId;
+  private final String tokenId;
+
+  public VerifiedToken(int userId, Date expiration, String familyId, String tokenId) {
+    this.userId = userId;
+    this.expiration = expiration;
+    this.familyId = familyId;
+    this.tokenId = tokenId;
+  }
+
+  public int getUserId() {
+    return userId;
+  }
+
+  public Date getExpiration() {
+    return expiration;
+  }
+
+  public String getFamilyId() {
+    return familyId;
+  }
+
+  public String getTokenId() {
+    return tokenId;
+  }
+
+  public boolean isExpired() {
+    return expiration.before(new Date());
+  }
+}
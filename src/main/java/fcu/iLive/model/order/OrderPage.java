@@ -0,0 +1,22 @@
+//訂單分頁結果
+
+package fcu.iLive.model.order;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 分頁的訂單列表
+ * page 從1開始，total 為用戶的訂單總數
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OrderPage {
+  private List<Order> orders;
+  private int page;
+  private int size;
+  private int total;
+}
@@ -0,0 +1,21 @@
+//商品分頁結果
+
+package fcu.iLive.model.product;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 以游標分頁的商品列表
+ * nextCursor 為下一頁的起點，沒有下一頁時為null
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductPage {
+  private List<ProductSummary> items;
+  private String nextCursor;
+  private boolean hasMore;
+}
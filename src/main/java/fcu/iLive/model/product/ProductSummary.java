@@ -0,0 +1,25 @@
+//商品列表摘要
+
+package fcu.iLive.model.product;
+
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 商品列表用的輕量投影，不包含 Description 等大型欄位
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductSummary {
+  private int productId;              // ProductID INT
+  private String name;                // Name VARCHAR(100)
+  private BigDecimal price;           // Price DECIMAL(10,2)
+  private int categoryId;             // CategoryID INT
+  private String brand;               // Brand VARCHAR(50)
+  private String imageUrl;            // ImageURL VARCHAR(255)
+  private int availableStock;         // Stock - LockedStock
+  private int status;                 // Status TINYINT - 商品狀態：0=下架，1=上架
+}
@@ -1,8 +1,8 @@
 package fcu.iLive.repository.cart;
 
 import fcu.iLive.model.cart.CartItems;
+import fcu.iLive.util.BoundRowMapper;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
@@ -14,11 +14,24 @@ public class CartItemsRepository {
   @Autowired
   private JdbcTemplate jdbcTemplate;
 
+  // 購物車項目映射，欄位索引在每次查詢的第一列綁定
+  private static final BoundRowMapper<CartItems> CART_ITEM_ROW_MAPPER = BoundRowMapper.builder(CartItems::new)
+      .intColumn("CartItemId", CartItems::setCartItemId)
+      .intColumn("CartId", CartItems::setCartId)
+      .intColumn("ProductId", CartItems::setProductId)
+      .intColumn("Quantity", CartItems::setQuantity)
+      .dateTimeColumn("CreatedAt", CartItems::setCreatedAt)
+      .dateTimeColumn("UpdatedAt", CartItems::setUpdatedAt)
+      .build();
+
+  // 購物車項目查詢的欄位
+  private static final String CART_ITEM_COLUMNS = "CartItemId, CartId, ProductId, Quantity, CreatedAt, UpdatedAt";
+
   // 根據ID查找購物車項目
   public CartItems findById(int cartItemId) {
     List<CartItems> items = jdbcTemplate.query(
-        "SELECT * FROM CartItems WHERE CartItemId = ?",
-        new BeanPropertyRowMapper<>(CartItems.class),
+        "SELECT " + CART_ITEM_COLUMNS + " FROM CartItems WHERE CartItemId = ?",
+        CART_ITEM_ROW_MAPPER,
         cartItemId
     );
     return items.isEmpty() ? null : items.get(0);
@@ -27,8 +40,8 @@ public class CartItemsRepository {
   // 根據購物車ID和商品ID查找項目
   public CartItems findByCartIdAndProductId(int cartId, int productId) {
     List<CartItems> items = jdbcTemplate.query(
-        "SELECT * FROM CartItems WHERE CartId = ? AND ProductId = ?",
-        new BeanPropertyRowMapper<>(CartItems.class),
+        "SELECT " + CART_ITEM_COLUMNS + " FROM CartItems WHERE CartId = ? AND ProductId = ?",
+        CART_ITEM_ROW_MAPPER,
         cartId, productId
     );
     return items.isEmpty() ? null : items.get(0);
@@ -36,12 +49,13 @@ public class CartItemsRepository {
 
   // 獲取購物車的所有項目
   public List<CartItems> findByCartId(int cartId) {
+    // 保留與商品的JOIN，已刪除商品的項目不會出現在結果中
     return jdbcTemplate.query(
-        "SELECT ci.*, p.Name AS ProductName, p.Price " +
+        "SELECT ci.CartItemId, ci.CartId, ci.ProductId, ci.Quantity, ci.CreatedAt, ci.UpdatedAt " +
             "FROM CartItems ci " +
             "JOIN Products p ON ci.ProductId = p.ProductId " +
             "WHERE ci.CartId = ?",
-        new BeanPropertyRowMapper<>(CartItems.class),
+        CART_ITEM_ROW_MAPPER,
         cartId
     );
   }
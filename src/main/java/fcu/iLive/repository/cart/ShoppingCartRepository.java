@@ -1,10 +1,14 @@
 package fcu.iLive.repository.cart;
 
 import fcu.iLive.model.cart.ShoppingCart;
+import fcu.iLive.util.BoundRowMapper;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
 import java.util.List;
 
 @Repository
@@ -13,11 +17,18 @@ public class ShoppingCartRepository {
   @Autowired
   private JdbcTemplate jdbcTemplate;
 
+  // 購物車映射，欄位索引在每次查詢的第一列綁定
+  private static final BoundRowMapper<ShoppingCart> SHOPPING_CART_ROW_MAPPER = BoundRowMapper.builder(ShoppingCart::new)
+      .intColumn("CartId", ShoppingCart::setCartId)
+      .intColumn("UserId", ShoppingCart::setUserId)
+      .dateTimeColumn("CreatedAt", ShoppingCart::setCreatedAt)
+      .build();
+
   // 根據用戶ID查找購物車
   public ShoppingCart findByUserId(int userId) {
     List<ShoppingCart> carts = jdbcTemplate.query(
-        "SELECT * FROM ShoppingCart WHERE UserId = ?",  // 修改表名和欄位名
-        new BeanPropertyRowMapper<>(ShoppingCart.class),
+        "SELECT CartId, UserId, CreatedAt FROM ShoppingCart WHERE UserId = ?",  // 修改表名和欄位名
+        SHOPPING_CART_ROW_MAPPER,
         userId
     );
     return carts.isEmpty() ? null : carts.get(0);
@@ -26,8 +37,8 @@ public class ShoppingCartRepository {
   // 根據購物車ID查找購物車
   public ShoppingCart findById(int cartId) {
     List<ShoppingCart> carts = jdbcTemplate.query(
-        "SELECT * FROM ShoppingCart WHERE CartId = ?",  // 修改表名和欄位名
-        new BeanPropertyRowMapper<>(ShoppingCart.class),
+        "SELECT CartId, UserId, CreatedAt FROM ShoppingCart WHERE CartId = ?",  // 修改表名和欄位名
+        SHOPPING_CART_ROW_MAPPER,
         cartId
     );
     return carts.isEmpty() ? null : carts.get(0);
@@ -45,21 +56,18 @@ public class ShoppingCartRepository {
       );
     } else {
       // 創建新購物車
-      jdbcTemplate.update(
-          "INSERT INTO ShoppingCart (UserId, CreatedAt) VALUES (?,?)",  // 修改表名和欄位名
-          cart.getUserId(),
-          cart.getCreatedAt()
-      );
+      KeyHolder keyHolder = new GeneratedKeyHolder();
+      jdbcTemplate.update(connection -> {
+        PreparedStatement ps = connection.prepareStatement(
+            "INSERT INTO ShoppingCart (UserId, CreatedAt) VALUES (?,?)",  // 修改表名和欄位名
+            Statement.RETURN_GENERATED_KEYS);
+        ps.setInt(1, cart.getUserId());
+        ps.setObject(2, cart.getCreatedAt());
+        return ps;
+      }, keyHolder);
 
       // 獲取新創建的購物車ID
-      List<ShoppingCart> newCart = jdbcTemplate.query(
-          "SELECT * FROM ShoppingCart WHERE UserId = ? ORDER BY CartId DESC LIMIT 1",  // 修改表名和欄位名
-          new BeanPropertyRowMapper<>(ShoppingCart.class),
-          cart.getUserId()
-      );
-      if (!newCart.isEmpty()) {
-        cart.setCartId(newCart.get(0).getCartId());
-      }
+      cart.setCartId(keyHolder.getKey().intValue());
     }
     return cart;
   }
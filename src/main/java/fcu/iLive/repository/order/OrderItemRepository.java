@@ -3,6 +3,7 @@
 package fcu.iLive.repository.order;
 
 import fcu.iLive.model.order.OrderItem;
+import fcu.iLive.util.BoundRowMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
@@ -20,6 +21,17 @@ public class OrderItemRepository {
   @Autowired
   private JdbcTemplate jdbcTemplate;
 
+  private static final BoundRowMapper<OrderItem> ORDER_ITEM_ROW_MAPPER = BoundRowMapper.builder(OrderItem::new)
+      .intColumn("OrderItemID", OrderItem::setOrderItemId)
+      .intColumn("OrderID", OrderItem::setOrderId)
+      .intColumn("ProductID", OrderItem::setProductId)
+      .intColumn("Quantity", OrderItem::setQuantity)
+      .decimalColumn("Price", OrderItem::setPrice)
+      .build();
+
+  // 訂單項目查詢的欄位，與 ORDER_ITEM_ROW_MAPPER 對應
+  private static final String ORDER_ITEM_COLUMNS = "oi.OrderItemID, oi.OrderID, oi.ProductID, oi.Quantity, oi.Price";
+
   public OrderItem save(OrderItem orderItem) {
     String sql = "INSERT INTO OrderItems (OrderID, ProductID, Quantity, Price) VALUES (?, ?, ?, ?)";
 
@@ -39,39 +51,19 @@ public class OrderItemRepository {
   }
 
   public List<OrderItem> findByOrderId(int orderId) {
-    String sql = "SELECT oi.*, p.ProductName FROM OrderItems oi " +
+    String sql = "SELECT " + ORDER_ITEM_COLUMNS + " FROM OrderItems oi " +
         "JOIN Products p ON oi.ProductID = p.ProductID " +
         "WHERE oi.OrderID = ?";
 
-    return jdbcTemplate.query(sql,
-        new Object[]{orderId},
-        (rs, rowNum) -> {
-          OrderItem orderItem = new OrderItem();
-          orderItem.setOrderItemId(rs.getInt("OrderItemID"));
-          orderItem.setOrderId(rs.getInt("OrderID"));
-          orderItem.setProductId(rs.getInt("ProductID"));
-          orderItem.setQuantity(rs.getInt("Quantity"));
-          orderItem.setPrice(rs.getBigDecimal("Price"));
-          return orderItem;
-        });
+    return jdbcTemplate.query(sql, ORDER_ITEM_ROW_MAPPER, orderId);
   }
 
   public Optional<OrderItem> findById(int orderItemId) {
-    String sql = "SELECT oi.*, p.ProductName FROM OrderItems oi " +
+    String sql = "SELECT " + ORDER_ITEM_COLUMNS + " FROM OrderItems oi " +
         "JOIN Products p ON oi.ProductID = p.ProductID " +
         "WHERE oi.OrderItemID = ?";
 
-    List<OrderItem> items = jdbcTemplate.query(sql,
-        new Object[]{orderItemId},
-        (rs, rowNum) -> {
-          OrderItem orderItem = new OrderItem();
-          orderItem.setOrderItemId(rs.getInt("OrderItemID"));
-          orderItem.setOrderId(rs.getInt("OrderID"));
-          orderItem.setProductId(rs.getInt("ProductID"));
-          orderItem.setQuantity(rs.getInt("Quantity"));
-          orderItem.setPrice(rs.getBigDecimal("Price"));
-          return orderItem;
-        });
+    List<OrderItem> items = jdbcTemplate.query(sql, ORDER_ITEM_ROW_MAPPER, orderItemId);
 
     return items.isEmpty() ? Optional.empty() : Optional.of(items.get(0));
   }
@@ -1,10 +1,12 @@
 package fcu.iLive.repository.order;
 
+import fcu.iLive.constant.OrderStatusEnum;
 import fcu.iLive.model.order.Order;
 import fcu.iLive.model.order.OrderItem;
 import fcu.iLive.model.order.OrderStatus;
 import fcu.iLive.model.product.Product;
 import fcu.iLive.model.user.User;
+import fcu.iLive.util.BoundRowMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
@@ -13,7 +15,12 @@ import org.springframework.stereotype.Repository;
 
 import java.sql.PreparedStatement;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 訂單資料訪問層
@@ -25,6 +32,65 @@ public class OrderRepository {
   @Autowired
   private JdbcTemplate jdbcTemplate;
 
+  // 訂單查詢的欄位，與 ORDER_ROW_MAPPER 對應
+  private static final String ORDER_COLUMNS = "o.OrderID, o.UserID, o.OrderDate, o.TotalAmount, " +
+      "o.ShippingAddress, o.PaymentMethod, o.StatusID, o.CreatedAt";
+
+  /**
+   * 將資料庫查詢結果映射為訂單實體，包含訂單狀態
+   */
+  private static final BoundRowMapper<Order> ORDER_ROW_MAPPER = BoundRowMapper.builder(() -> {
+        Order order = new Order();
+        order.setStatus(new OrderStatus());
+        return order;
+      })
+      .intColumn("OrderID", Order::setOrderId)
+      .intColumn("UserID", Order::setUserId)
+      .dateTimeColumn("OrderDate", Order::setOrderDate)
+      .decimalColumn("TotalAmount", Order::setTotalAmount)
+      .stringColumn("ShippingAddress", Order::setShippingAddress)
+      .stringColumn("PaymentMethod", Order::setPaymentMethod)
+      .intColumn("StatusID", (order, statusId) -> {
+        order.setStatusId(statusId);
+        order.getStatus().setStatusId(statusId);
+      })
+      .stringColumn("StatusName", (order, statusName) -> order.getStatus().setStatusName(statusName))
+      .dateTimeColumn("CreatedAt", Order::setCreatedAt)
+      .build();
+
+  /**
+   * 訂單顯示用的用戶信息
+   */
+  private static final BoundRowMapper<User> ORDER_USER_ROW_MAPPER = BoundRowMapper.builder(User::new)
+      .intColumn("UserID", User::setUserId)
+      .stringColumn("Username", User::setUsername)
+      .stringColumn("Email", User::setEmail)
+      .stringColumn("FullName", User::setFullName)
+      .stringColumn("PhoneNumber", User::setPhoneNumber)
+      .stringColumn("Address", User::setAddress)
+      .build();
+
+  /**
+   * 訂單項目，包含商品名稱及目前價格
+   */
+  private static final BoundRowMapper<OrderItem> ORDER_ITEM_ROW_MAPPER = BoundRowMapper.builder(() -> {
+        OrderItem item = new OrderItem();
+        item.setProduct(new Product());
+        return item;
+      })
+      .intColumn("OrderItemID", OrderItem::setOrderItemId)
+      .intColumn("OrderID", OrderItem::setOrderId)
+      .intColumn("ProductID", (item, productId) -> {
+        item.setProductId(productId);
+        item.getProduct().setProductId(productId);
+      })
+      .intColumn("Quantity", OrderItem::setQuantity)
+      .decimalColumn("Price", OrderItem::setPrice)
+      .dateTimeColumn("CreatedAt", OrderItem::setCreatedAt)
+      .stringColumn("ProductName", (item, name) -> item.getProduct().setName(name))
+      .decimalColumn("ProductPrice", (item, price) -> item.getProduct().setPrice(price))
+      .build();
+
   /**
    * 創建訂單
    * @param order 訂單實體
@@ -96,6 +162,25 @@ public class OrderRepository {
     jdbcTemplate.update(sql, statusId, orderId);
   }
 
+  /**
+   * 將未付款的訂單改為已取消，用於庫存鎖定逾期
+   * 已付款或已取消的訂單不受影響
+   * @param orderIds 訂單ID集合
+   * @return 更新的訂單數量
+   */
+  public int cancelUnpaid(Collection<Integer> orderIds) {
+    if (orderIds.isEmpty()) {
+      return 0;
+    }
+    String sql = "UPDATE Orders SET StatusID = ? WHERE StatusID < ? AND OrderID IN (" +
+        String.join(", ", Collections.nCopies(orderIds.size(), "?")) + ")";
+    List<Object> params = new ArrayList<>();
+    params.add(OrderStatusEnum.CANCELLED.getId());
+    params.add(OrderStatusEnum.PAID.getId());
+    params.addAll(orderIds);
+    return jdbcTemplate.update(sql, params.toArray());
+  }
+
   /**
    * 根據訂單ID查詢訂單
    * 包含用戶信息、訂單狀態和訂單項目
@@ -103,7 +188,7 @@ public class OrderRepository {
    * @return 訂單實體
    */
   public Order findById(int orderId) {
-    String sql = "SELECT o.*, u.Username, u.Email, u.FullName, u.PhoneNumber, u.Address, " +
+    String sql = "SELECT " + ORDER_COLUMNS + ", u.Username, u.Email, u.FullName, u.PhoneNumber, u.Address, " +
         "os.StatusName " +
         "FROM Orders o " +
         "LEFT JOIN Users u ON o.UserID = u.UserID " +
@@ -111,23 +196,10 @@ public class OrderRepository {
         "WHERE o.OrderID = ?";
 
     List<Order> orders = jdbcTemplate.query(sql, (rs, rowNum) -> {
-      Order order = mapRowToOrder(rs, rowNum);
+      Order order = ORDER_ROW_MAPPER.mapRow(rs, rowNum);
 
       // 設置用戶信息
-      User user = new User();
-      user.setUserId(rs.getInt("UserID"));
-      user.setUsername(rs.getString("Username"));
-      user.setEmail(rs.getString("Email"));
-      user.setFullName(rs.getString("FullName"));
-      user.setPhoneNumber(rs.getString("PhoneNumber"));
-      user.setAddress(rs.getString("Address"));
-      order.setUser(user);
-
-      // 設置訂單狀態
-      OrderStatus status = new OrderStatus();
-      status.setStatusId(rs.getInt("StatusID"));
-      status.setStatusName(rs.getString("StatusName"));
-      order.setStatus(status);
+      order.setUser(ORDER_USER_ROW_MAPPER.mapRow(rs, rowNum));
 
       return order;
     }, orderId);
@@ -137,103 +209,95 @@ public class OrderRepository {
     }
 
     Order order = orders.get(0);
-    order.setItems(findOrderItems(orderId));
+    order.setItems(findOrderItems(List.of(orderId)).getOrDefault(orderId, new ArrayList<>()));
     return order;
   }
 
   /**
-   * 查詢用戶的所有訂單
-   * 包含用戶信息、訂單狀態和訂單項目
+   * 查詢用戶的訂單總數
    * @param userId 用戶ID
-   * @return 訂單列表
+   * @return 訂單數量
    */
-  public List<Order> findByUserId(int userId) {
-    String sql = "SELECT o.*, u.Username, u.Email, u.FullName, u.PhoneNumber, u.Address, " +
-        "os.StatusName " +
+  public int countByUserId(int userId) {
+    String sql = "SELECT COUNT(*) FROM Orders WHERE UserID = ?";
+    Integer count = jdbcTemplate.queryForObject(sql, Integer.class, userId);
+    return count != null ? count : 0;
+  }
+
+  /**
+   * 分頁查詢用戶的訂單
+   * 用戶信息只查詢一次並由所有訂單共用，訂單項目以單一查詢載入
+   * @param userId 用戶ID
+   * @param offset 略過的筆數
+   * @param limit 查詢筆數
+   * @param includeItems 是否載入訂單項目，false時items為null
+   * @return 訂單列表，依建立時間由新到舊排序
+   */
+  public List<Order> findByUserId(int userId, int offset, int limit, boolean includeItems) {
+    String sql = "SELECT " + ORDER_COLUMNS + ", os.StatusName " +
         "FROM Orders o " +
-        "LEFT JOIN Users u ON o.UserID = u.UserID " +
         "LEFT JOIN OrderStatus os ON o.StatusID = os.StatusID " +
         "WHERE o.UserID = ? " +
-        "ORDER BY o.CreatedAt DESC";
+        "ORDER BY o.CreatedAt DESC, o.OrderID DESC " +
+        "LIMIT ? OFFSET ?";
 
-    List<Order> orders = jdbcTemplate.query(sql, (rs, rowNum) -> {
-      Order order = mapRowToOrder(rs, rowNum);
+    List<Order> orders = jdbcTemplate.query(sql, ORDER_ROW_MAPPER, userId, limit, offset);
 
-      // 設置用戶信息
-      User user = new User();
-      user.setUserId(rs.getInt("UserID"));
-      user.setUsername(rs.getString("Username"));
-      user.setEmail(rs.getString("Email"));
-      user.setFullName(rs.getString("FullName"));
-      user.setPhoneNumber(rs.getString("PhoneNumber"));
-      user.setAddress(rs.getString("Address"));
-      order.setUser(user);
-
-      // 設置訂單狀態
-      OrderStatus status = new OrderStatus();
-      status.setStatusId(rs.getInt("StatusID"));
-      status.setStatusName(rs.getString("StatusName"));
-      order.setStatus(status);
+    if (orders.isEmpty()) {
+      return orders;
+    }
 
-      return order;
-    }, userId);
+    // 設置用戶信息
+    User user = findOrderUser(userId);
+    orders.forEach(order -> order.setUser(user));
 
-    // 為每個訂單加載訂單項目
-    orders.forEach(order -> order.setItems(findOrderItems(order.getOrderId())));
+    // 一次載入所有訂單的項目
+    if (includeItems) {
+      List<Integer> orderIds = new ArrayList<>();
+      orders.forEach(order -> orderIds.add(order.getOrderId()));
+      Map<Integer, List<OrderItem>> items = findOrderItems(orderIds);
+      orders.forEach(order -> order.setItems(items.getOrDefault(order.getOrderId(), new ArrayList<>())));
+    }
     return orders;
   }
 
   /**
-   * 查詢訂單的所有項目
-   * 包含商品信息
-   * @param orderId 訂單ID
-   * @return 訂單項目列表
+   * 查詢訂單顯示用的用戶信息
+   * @param userId 用戶ID
+   * @return 用戶實體，不存在時為null
    */
-  private List<OrderItem> findOrderItems(int orderId) {
-    String sql = "SELECT oi.*, p.Name as ProductName, p.Price as ProductPrice " +
-        "FROM OrderItems oi " +
-        "LEFT JOIN Products p ON oi.ProductID = p.ProductID " +
-        "WHERE oi.OrderID = ?";
-
-    return jdbcTemplate.query(sql, (rs, rowNum) -> {
-      OrderItem item = new OrderItem();
-      item.setOrderItemId(rs.getInt("OrderItemID"));
-      item.setOrderId(rs.getInt("OrderID"));
-      item.setProductId(rs.getInt("ProductID"));
-      item.setQuantity(rs.getInt("Quantity"));
-      item.setPrice(rs.getBigDecimal("Price"));
-      item.setCreatedAt(rs.getTimestamp("CreatedAt") != null ?
-          rs.getTimestamp("CreatedAt").toLocalDateTime() : null);
-
-      // 設置商品信息
-      Product product = new Product();
-      product.setProductId(rs.getInt("ProductID"));
-      product.setName(rs.getString("ProductName"));
-      product.setPrice(rs.getBigDecimal("ProductPrice"));
-      item.setProduct(product);
-
-      return item;
-    }, orderId);
+  private User findOrderUser(int userId) {
+    String sql = "SELECT UserID, Username, Email, FullName, PhoneNumber, Address " +
+        "FROM Users WHERE UserID = ?";
+
+    List<User> users = jdbcTemplate.query(sql, ORDER_USER_ROW_MAPPER, userId);
+
+    return users.isEmpty() ? null : users.get(0);
   }
 
   /**
-   * 將資料庫查詢結果映射為訂單實體
-   * @param rs 資料庫結果集
-   * @param rowNum 行號
-   * @return 訂單實體
+   * 查詢多筆訂單的所有項目
+   * 包含商品信息
+   * @param orderIds 訂單ID集合
+   * @return 訂單ID對應的訂單項目列表
    */
-  private Order mapRowToOrder(java.sql.ResultSet rs, int rowNum) throws java.sql.SQLException {
-    Order order = new Order();
-    order.setOrderId(rs.getInt("OrderID"));
-    order.setUserId(rs.getInt("UserID"));
-    order.setOrderDate(rs.getTimestamp("OrderDate") != null ?
-        rs.getTimestamp("OrderDate").toLocalDateTime() : null);
-    order.setTotalAmount(rs.getBigDecimal("TotalAmount"));
-    order.setShippingAddress(rs.getString("ShippingAddress"));
-    order.setPaymentMethod(rs.getString("PaymentMethod"));
-    order.setStatusId(rs.getInt("StatusID"));
-    order.setCreatedAt(rs.getTimestamp("CreatedAt") != null ?
-        rs.getTimestamp("CreatedAt").toLocalDateTime() : null);
-    return order;
+  private Map<Integer, List<OrderItem>> findOrderItems(Collection<Integer> orderIds) {
+    if (orderIds.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    String sql = "SELECT oi.OrderItemID, oi.OrderID, oi.ProductID, oi.Quantity, oi.Price, oi.CreatedAt, " +
+        "p.Name as ProductName, p.Price as ProductPrice " +
+        "FROM OrderItems oi " +
+        "LEFT JOIN Products p ON oi.ProductID = p.ProductID " +
+        "WHERE oi.OrderID IN (" + String.join(", ", Collections.nCopies(orderIds.size(), "?")) + ") " +
+        "ORDER BY oi.OrderID, oi.OrderItemID";
+
+    Map<Integer, List<OrderItem>> itemsByOrder = new HashMap<>();
+    for (OrderItem item : jdbcTemplate.query(sql, ORDER_ITEM_ROW_MAPPER, orderIds.toArray())) {
+      itemsByOrder.computeIfAbsent(item.getOrderId(), key -> new ArrayList<>()).add(item);
+    }
+
+    return itemsByOrder;
   }
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@
 package fcu.iLive.repository.order;
 
 import fcu.iLive.model.order.OrderStatus;
+import fcu.iLive.util.BoundRowMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
@@ -16,28 +17,21 @@ public class OrderStatusRepository {
   @Autowired
   private JdbcTemplate jdbcTemplate;
 
+  private static final BoundRowMapper<OrderStatus> ORDER_STATUS_ROW_MAPPER = BoundRowMapper.builder(OrderStatus::new)
+      .intColumn("StatusID", OrderStatus::setStatusId)
+      .stringColumn("StatusName", OrderStatus::setStatusName)
+      .build();
+
   public List<OrderStatus> findAll() {
-    String sql = "SELECT * FROM OrderStatus";
-
-    return jdbcTemplate.query(sql, (rs, rowNum) -> {
-      OrderStatus status = new OrderStatus();
-      status.setStatusId(rs.getInt("StatusID"));
-      status.setStatusName(rs.getString("StatusName"));
-      return status;
-    });
+    String sql = "SELECT StatusID, StatusName FROM OrderStatus";
+
+    return jdbcTemplate.query(sql, ORDER_STATUS_ROW_MAPPER);
   }
 
   public Optional<OrderStatus> findById(int statusId) {
-    String sql = "SELECT * FROM OrderStatus WHERE StatusID = ?";
-
-    List<OrderStatus> statuses = jdbcTemplate.query(sql,
-        new Object[]{statusId},
-        (rs, rowNum) -> {
-          OrderStatus status = new OrderStatus();
-          status.setStatusId(rs.getInt("StatusID"));
-          status.setStatusName(rs.getString("StatusName"));
-          return status;
-        });
+    String sql = "SELECT StatusID, StatusName FROM OrderStatus WHERE StatusID = ?";
+
+    List<OrderStatus> statuses = jdbcTemplate.query(sql, ORDER_STATUS_ROW_MAPPER, statusId);
 
     return statuses.isEmpty() ? Optional.empty() : Optional.of(statuses.get(0));
   }
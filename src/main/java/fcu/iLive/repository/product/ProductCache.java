@@ -0,0 +1,105 @@
+package fcu.iLive.repository.product;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fcu.iLive.model.product.Product;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 商品快取
+ * 以商品ID為鍵的讀取穿透快取，依數量上限及存活時間淘汰
+ * 命中、未命中及淘汰次數透過 actuator 的 cache.* 指標公開（name=products）
+ */
+@Component
+public class ProductCache {
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${product.cache.max-size:10000}")
+  private long maxSize;
+
+  @Value("${product.cache.ttl-seconds:60}")
+  private long ttlSeconds;
+
+  private Cache<Integer, Product> cache;
+
+  @PostConstruct
+  public void init() {
+    cache = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "products");
+  }
+
+  /**
+   * 取得商品，未命中時以loader載入並放入快取
+   * @param productId 商品ID
+   * @param loader 載入函式，回傳null時不快取
+   * @return 商品實體，不存在時返回null
+   */
+  public Product get(int productId, Function<Integer, Product> loader) {
+    return cache.get(productId, loader);
+  }
+
+  /**
+   * 取得多個商品，未命中的商品以loader一次載入並放入快取
+   * @param productIds 商品ID集合
+   * @param loader 批次載入函式，不存在的商品不需出現在結果中
+   * @return 商品ID與商品實體的對應，不存在的商品不會出現在結果中
+   */
+  public Map<Integer, Product> getAll(Collection<Integer> productIds,
+                                      Function<Set<? extends Integer>, Map<Integer, Product>> loader) {
+    return cache.getAll(productIds, loader);
+  }
+
+  /**
+   * 取得已快取的商品，不觸發載入
+   * @param productId 商品ID
+   * @return 商品實體，未快取時返回null
+   */
+  public Product getIfPresent(int productId) {
+    return cache.getIfPresent(productId);
+  }
+
+  /**
+   * 使商品快取失效
+   * 在交易中呼叫時，交易結束後會再失效一次，避免其他請求在提交前讀回舊資料
+   * @param productId 商品ID
+   */
+  public void invalidate(int productId) {
+    invalidateAll(List.of(productId));
+  }
+
+  /**
+   * 使多個商品快取失效
+   * @param productIds 商品ID集合
+   */
+  public void invalidateAll(Collection<Integer> productIds) {
+    cache.invalidateAll(productIds);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          cache.invalidateAll(productIds);
+        }
+      });
+    }
+  }
+}
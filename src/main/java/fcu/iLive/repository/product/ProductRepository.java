@@ -1,6 +1,8 @@
 package fcu.iLive.repository.product;
 
 import fcu.iLive.model.product.Product;
+import fcu.iLive.model.product.ProductSummary;
+import fcu.iLive.util.BoundRowMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
@@ -11,7 +13,11 @@ import java.math.BigDecimal;
 import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 商品資料訪問層
@@ -23,23 +29,112 @@ public class ProductRepository {
   @Autowired
   private JdbcTemplate jdbcTemplate;
 
+  @Autowired
+  private ProductCache productCache;
+
+  @Autowired
+  private StockAvailabilityIndex availabilityIndex;
+
+  /**
+   * 將資料庫查詢結果映射為商品實體
+   */
+  private static final BoundRowMapper<Product> PRODUCT_ROW_MAPPER = BoundRowMapper.builder(Product::new)
+      .intColumn("ProductID", Product::setProductId)
+      .stringColumn("Name", Product::setName)
+      .stringColumn("Description", Product::setDescription)
+      .decimalColumn("Price", Product::setPrice)
+      .intColumn("Stock", Product::setStock)
+      .intColumn("CategoryID", Product::setCategoryId)
+      .stringColumn("Brand", Product::setBrand)
+      .stringColumn("ImageURL", Product::setImageUrl)
+      .intColumn("LockedStock", Product::setLockedStock)
+      .dateTimeColumn("CreatedAt", Product::setCreatedAt)
+      .dateTimeColumn("UpdatedAt", Product::setUpdatedAt)
+      .intColumn("Status", Product::setStatus)
+      .build();
+
+  /**
+   * 將資料庫查詢結果映射為商品摘要
+   */
+  private static final BoundRowMapper<ProductSummary> PRODUCT_SUMMARY_ROW_MAPPER =
+      BoundRowMapper.builder(ProductSummary::new)
+          .intColumn("ProductID", ProductSummary::setProductId)
+          .stringColumn("Name", ProductSummary::setName)
+          .decimalColumn("Price", ProductSummary::setPrice)
+          .intColumn("CategoryID", ProductSummary::setCategoryId)
+          .stringColumn("Brand", ProductSummary::setBrand)
+          .stringColumn("ImageURL", ProductSummary::setImageUrl)
+          .intColumn("AvailableStock", ProductSummary::setAvailableStock)
+          .intColumn("Status", ProductSummary::setStatus)
+          .build();
+
+  /**
+   * 商品查詢的欄位組合
+   * 依用途只查詢需要的欄位，未查詢的欄位在商品實體中保持預設值
+   */
+  public enum Projection {
+    // 商品列表卡片，不含商品描述
+    LIST("ProductID, Name, Price, Stock, LockedStock, CategoryID, Brand, ImageURL, Status"),
+    // 商品詳情與後台管理
+    DETAIL("ProductID, Name, Description, Price, Stock, LockedStock, CategoryID, Brand, ImageURL, " +
+        "Status, CreatedAt, UpdatedAt"),
+    // 只需要庫存數量
+    STOCK("ProductID, Stock, LockedStock, Status");
+
+    private final String columns;
+
+    Projection(String columns) {
+      this.columns = columns;
+    }
+
+    public String columns() {
+      return columns;
+    }
+  }
+
   /**
    * 根據商品ID查詢商品資訊
    * @param productId 商品ID
    * @return 商品實體，若不存在則返回null
    */
   public Product findById(int productId) {
-    String sql = "SELECT * FROM Products WHERE ProductID = ?";
+    return findById(productId, Projection.DETAIL);
+  }
+
+  /**
+   * 根據商品ID查詢指定欄位組合的商品資訊
+   * @param productId 商品ID
+   * @param projection 欄位組合
+   * @return 商品實體，若不存在則返回null
+   */
+  public Product findById(int productId, Projection projection) {
+    String sql = "SELECT " + projection.columns() + " FROM Products WHERE ProductID = ?";
 
     List<Product> products = jdbcTemplate.query(
         sql,
-        this::mapRowToProduct,
+        PRODUCT_ROW_MAPPER,
         productId
     );
 
     return products.isEmpty() ? null : products.get(0);
   }
 
+  /**
+   * 根據多個商品ID一次查詢商品資訊
+   * @param productIds 商品ID集合
+   * @param projection 欄位組合
+   * @return 商品實體列表，不存在的商品不會出現在結果中
+   */
+  public List<Product> findByIds(Collection<Integer> productIds, Projection projection) {
+    if (productIds.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    String sql = "SELECT " + projection.columns() + " FROM Products WHERE ProductID IN (" +
+        placeholders(productIds.size()) + ")";
+    return jdbcTemplate.query(sql, PRODUCT_ROW_MAPPER, productIds.toArray());
+  }
+
   /**
    * 新增商品
    * @param product 商品實體
@@ -65,6 +160,7 @@ public class ProductRepository {
     }, keyHolder);
 
     product.setProductId(keyHolder.getKey().intValue());
+    availabilityIndex.register(product.getProductId(), product.getStock());
     return product;
   }
 
@@ -73,24 +169,74 @@ public class ProductRepository {
    * @return 所有商品列表，包含上架和下架的商品
    */
   public List<Product> findAll() {
-    String sql = "SELECT * FROM Products";
-    return jdbcTemplate.query(sql, this::mapRowToProduct);
+    String sql = "SELECT " + Projection.DETAIL.columns() + " FROM Products";
+    return jdbcTemplate.query(sql, PRODUCT_ROW_MAPPER);
   }
 
   /**
    * 查詢所有上架商品（前台使用）
-   * @return 上架商品列表
+   * @return 上架商品列表，不含商品描述
    */
   public List<Product> findAllActive() {
-    String sql = "SELECT * FROM Products WHERE Status = 1";
-    return jdbcTemplate.query(sql, this::mapRowToProduct);
+    String sql = "SELECT " + Projection.LIST.columns() + " FROM Products WHERE Status = 1";
+    return jdbcTemplate.query(sql, PRODUCT_ROW_MAPPER);
+  }
+
+  /**
+   * 以游標分頁查詢商品摘要
+   * 依排序鍵加上商品ID做鍵集分頁，不使用OFFSET，深頁查詢成本與第一頁相同
+   * @param activeOnly 是否只查詢上架商品
+   * @param sortByPrice 是否依價格排序，否則依商品ID排序
+   * @param descending 是否遞減排序
+   * @param afterPrice 上一頁最後一筆的價格，依價格排序時使用
+   * @param afterId 上一頁最後一筆的商品ID，第一頁為null
+   * @param limit 查詢筆數
+   * @return 商品摘要列表
+   */
+  public List<ProductSummary> findPage(boolean activeOnly, boolean sortByPrice, boolean descending,
+                                       BigDecimal afterPrice, Integer afterId, int limit) {
+    StringBuilder sql = new StringBuilder("SELECT ProductID, Name, Price, " +
+        "Stock - LockedStock AS AvailableStock, CategoryID, Brand, ImageURL, Status FROM Products WHERE 1=1");
+    List<Object> params = new ArrayList<>();
+
+    if (activeOnly) {
+      sql.append(" AND Status = 1");
+    }
+
+    String comparator = descending ? " < ?" : " > ?";
+    if (afterId != null) {
+      if (sortByPrice) {
+        sql.append(" AND (Price").append(comparator)
+            .append(" OR (Price = ? AND ProductID").append(comparator).append("))");
+        params.add(afterPrice);
+        params.add(afterPrice);
+        params.add(afterId);
+      } else {
+        sql.append(" AND ProductID").append(comparator);
+        params.add(afterId);
+      }
+    }
+
+    String direction = descending ? " DESC" : " ASC";
+    sql.append(" ORDER BY ");
+    if (sortByPrice) {
+      sql.append("Price").append(direction).append(", ");
+    }
+    sql.append("ProductID").append(direction).append(" LIMIT ?");
+    params.add(limit);
+
+    return jdbcTemplate.query(sql.toString(), PRODUCT_SUMMARY_ROW_MAPPER, params.toArray());
   }
 
   /**
    * 更新商品資訊
+   * 須在交易中呼叫，修改前的實際庫存以 FOR UPDATE 讀取，交易結束前不會被其他交易改變
    * @param product 待更新的商品實體
    */
   public void update(Product product) {
+    List<Integer> previousStock = jdbcTemplate.queryForList(
+        "SELECT Stock FROM Products WHERE ProductID = ? FOR UPDATE", Integer.class, product.getProductId());
+
     String sql = "UPDATE Products SET Name = ?, Description = ?, Price = ?, Stock = ?, " +
         "CategoryID = ?, Brand = ?, ImageURL = ? WHERE ProductID = ?";
 
@@ -103,6 +249,12 @@ public class ProductRepository {
         product.getBrand(),
         product.getImageUrl(),
         product.getProductId());
+    productCache.invalidate(product.getProductId());
+
+    // 實際庫存可能被修改，以變動量更新可用庫存，不覆蓋其他交易同時套用的變動
+    if (!previousStock.isEmpty()) {
+      availabilityIndex.add(product.getProductId(), product.getStock() - previousStock.get(0));
+    }
   }
 
   /**
@@ -112,16 +264,18 @@ public class ProductRepository {
   public void delete(int productId) {
     String sql = "DELETE FROM Products WHERE ProductID = ?";
     jdbcTemplate.update(sql, productId);
+    productCache.invalidate(productId);
+    availabilityIndex.remove(productId);
   }
 
   /**
    * 根據分類查詢商品
    * @param categoryId 分類ID
-   * @return 該分類下的商品列表
+   * @return 該分類下的商品列表，不含商品描述
    */
   public List<Product> findByCategory(int categoryId) {
-    String sql = "SELECT * FROM Products WHERE CategoryID = ?";
-    return jdbcTemplate.query(sql, this::mapRowToProduct, categoryId);
+    String sql = "SELECT " + Projection.LIST.columns() + " FROM Products WHERE CategoryID = ?";
+    return jdbcTemplate.query(sql, PRODUCT_ROW_MAPPER, categoryId);
   }
 
   /**
@@ -129,10 +283,13 @@ public class ProductRepository {
    * @param keyword 關鍵字，用於商品名稱和描述的模糊查詢
    * @param minPrice 最低價格
    * @param maxPrice 最高價格
-   * @return 符合條件的商品列表
+   * @param offset 略過的筆數
+   * @param limit 回傳的最大筆數
+   * @return 符合條件的商品列表，依商品ID排序；與搜尋索引相同使用詳情欄位，
+   *         兩種查詢方式回傳的商品欄位一致
    */
-  public List<Product> search(String keyword, BigDecimal minPrice, BigDecimal maxPrice) {
-    StringBuilder sql = new StringBuilder("SELECT * FROM Products WHERE 1=1");
+  public List<Product> search(String keyword, BigDecimal minPrice, BigDecimal maxPrice, int offset, int limit) {
+    StringBuilder sql = new StringBuilder("SELECT " + Projection.DETAIL.columns() + " FROM Products WHERE 1=1");
     List<Object> params = new ArrayList<>();
 
     if (keyword != null && !keyword.trim().isEmpty()) {
@@ -152,48 +309,34 @@ public class ProductRepository {
       params.add(maxPrice);
     }
 
-    return jdbcTemplate.query(sql.toString(), this::mapRowToProduct, params.toArray());
-  }
+    sql.append(" ORDER BY ProductID LIMIT ? OFFSET ?");
+    params.add(limit);
+    params.add(offset);
 
-  /**
-   * 將資料庫查詢結果映射為商品實體
-   * @param rs 資料庫結果集
-   * @param rowNum 行號
-   * @return 商品實體
-   */
-  private Product mapRowToProduct(java.sql.ResultSet rs, int rowNum) throws java.sql.SQLException {
-    Product product = new Product();
-    product.setProductId(rs.getInt("ProductID"));
-    product.setName(rs.getString("Name"));
-    product.setDescription(rs.getString("Description"));
-    product.setPrice(rs.getBigDecimal("Price"));
-    product.setStock(rs.getInt("Stock"));
-    product.setCategoryId(rs.getInt("CategoryID"));
-    product.setBrand(rs.getString("Brand"));
-    product.setImageUrl(rs.getString("ImageURL"));
-    product.setLockedStock(rs.getInt("LockedStock"));
-    product.setCreatedAt(rs.getTimestamp("CreatedAt") != null ?
-        rs.getTimestamp("CreatedAt").toLocalDateTime() : null);
-    product.setUpdatedAt(rs.getTimestamp("UpdatedAt") != null ?
-        rs.getTimestamp("UpdatedAt").toLocalDateTime() : null);
-    product.setStatus(rs.getInt("Status"));
-    return product;
+    return jdbcTemplate.query(sql.toString(), PRODUCT_ROW_MAPPER, params.toArray());
   }
 
   /**
-   * 更新商品的庫存鎖定數量
+   * 鎖定商品庫存
+   * 以條件式UPDATE原子地增加鎖定數量，可用庫存不足時不會更新
    * @param productId 商品ID
-   * @param lockedStock 新的鎖定數量
+   * @param quantity 鎖定數量
+   * @return 是否鎖定成功
    */
-  public void updateLockedStock(int productId, int lockedStock) {
-    String sql = "UPDATE Products SET LockedStock = ?, UpdatedAt = CURRENT_TIMESTAMP " +
-        "WHERE ProductID = ?";
-    jdbcTemplate.update(sql, lockedStock, productId);
+  public boolean reserveStock(int productId, int quantity) {
+    String sql = "UPDATE Products SET LockedStock = LockedStock + ?, UpdatedAt = CURRENT_TIMESTAMP " +
+        "WHERE ProductID = ? AND Stock - LockedStock >= ?";
+    productCache.invalidate(productId);
+    boolean reserved = jdbcTemplate.update(sql, quantity, productId, quantity) > 0;
+    if (reserved) {
+      availabilityIndex.add(productId, -quantity);
+    }
+    return reserved;
   }
 
   /**
    * 扣減商品的實際庫存和保留庫存
-   * 用於訂單支付完成時確認扣庫存
+   * 用於訂單支付完成時確認扣庫存，實際庫存與鎖定庫存同時減少，可用庫存不變
    * @param productId 商品ID
    * @param quantity 扣減數量
    * @return 是否扣減成功
@@ -201,6 +344,7 @@ public class ProductRepository {
   public boolean deductStock(int productId, int quantity) {
     String sql = "UPDATE Products SET Stock = Stock - ?, LockedStock = LockedStock - ?, " +
         "UpdatedAt = CURRENT_TIMESTAMP WHERE ProductID = ? AND Stock >= ? AND LockedStock >= ?";
+    productCache.invalidate(productId);
     return jdbcTemplate.update(sql, quantity, quantity, productId, quantity, quantity) > 0;
   }
 
@@ -214,18 +358,202 @@ public class ProductRepository {
   public boolean releaseLockedStock(int productId, int quantity) {
     String sql = "UPDATE Products SET LockedStock = LockedStock - ?, " +
         "UpdatedAt = CURRENT_TIMESTAMP WHERE ProductID = ? AND LockedStock >= ?";
-    return jdbcTemplate.update(sql, quantity, productId, quantity) > 0;
+    productCache.invalidate(productId);
+    boolean released = jdbcTemplate.update(sql, quantity, productId, quantity) > 0;
+    if (released) {
+      availabilityIndex.add(productId, quantity);
+    }
+    return released;
   }
 
   /**
-   * 檢查商品是否有足夠的可用庫存
-   * 可用庫存 = 實際庫存 - 已鎖定庫存
-   * @param productId 商品ID
-   * @param quantity 需要的數量
-   * @return 是否有足夠庫存
+   * 批次鎖定多個商品的庫存
+   * 以單一條件式UPDATE完成所有商品的鎖定，可用庫存不足的商品該列不會被更新
+   * 呼叫端須在交易中執行，回傳false時應回滾交易
+   * @param quantities 商品ID與鎖定數量的對應，數量須大於0
+   * @return 是否所有商品皆鎖定成功
+   */
+  public boolean reserveStock(Map<Integer, Integer> quantities) {
+    if (quantities.isEmpty()) {
+      return true;
+    }
+
+    List<Object> params = new ArrayList<>();
+    String quantityCase = quantityCase(quantities, params);
+    params.addAll(quantities.keySet());
+    quantityCase(quantities, params);
+
+    String sql = "UPDATE Products SET LockedStock = LockedStock + " + quantityCase +
+        ", UpdatedAt = CURRENT_TIMESTAMP WHERE ProductID IN (" + placeholders(quantities.size()) + ")" +
+        " AND Stock - LockedStock >= " + quantityCase;
+    productCache.invalidateAll(quantities.keySet());
+    boolean reserved = jdbcTemplate.update(sql, params.toArray()) == quantities.size();
+    if (reserved) {
+      quantities.forEach((productId, quantity) -> availabilityIndex.add(productId, -quantity));
+    }
+    return reserved;
+  }
+
+  /**
+   * 批次扣減多個商品的實際庫存和保留庫存
+   * 以單一條件式UPDATE完成，庫存或保留庫存不足的商品該列不會被更新
+   * 呼叫端須在交易中執行，回傳false時應回滾交易
+   * @param quantities 商品ID與扣減數量的對應，數量須大於0
+   * @return 是否所有商品皆扣減成功
+   */
+  public boolean deductStock(Map<Integer, Integer> quantities) {
+    if (quantities.isEmpty()) {
+      return true;
+    }
+
+    List<Object> params = new ArrayList<>();
+    String quantityCase = quantityCase(quantities, params);
+    quantityCase(quantities, params);
+    params.addAll(quantities.keySet());
+    quantityCase(quantities, params);
+    quantityCase(quantities, params);
+
+    String sql = "UPDATE Products SET Stock = Stock - " + quantityCase +
+        ", LockedStock = LockedStock - " + quantityCase +
+        ", UpdatedAt = CURRENT_TIMESTAMP WHERE ProductID IN (" + placeholders(quantities.size()) + ")" +
+        " AND Stock >= " + quantityCase + " AND LockedStock >= " + quantityCase;
+    productCache.invalidateAll(quantities.keySet());
+    return jdbcTemplate.update(sql, params.toArray()) == quantities.size();
+  }
+
+  /**
+   * 批次釋放多個商品的保留庫存
+   * 以單一條件式UPDATE完成，保留庫存不足的商品該列不會被更新
+   * 呼叫端須在交易中執行，回傳false時應回滾交易
+   * @param quantities 商品ID與釋放數量的對應，數量須大於0
+   * @return 是否所有商品皆釋放成功
+   */
+  public boolean releaseLockedStock(Map<Integer, Integer> quantities) {
+    if (quantities.isEmpty()) {
+      return true;
+    }
+
+    List<Object> params = new ArrayList<>();
+    String quantityCase = quantityCase(quantities, params);
+    params.addAll(quantities.keySet());
+    quantityCase(quantities, params);
+
+    String sql = "UPDATE Products SET LockedStock = LockedStock - " + quantityCase +
+        ", UpdatedAt = CURRENT_TIMESTAMP WHERE ProductID IN (" + placeholders(quantities.size()) + ")" +
+        " AND LockedStock >= " + quantityCase;
+    productCache.invalidateAll(quantities.keySet());
+    boolean released = jdbcTemplate.update(sql, params.toArray()) == quantities.size();
+    if (released) {
+      quantities.forEach(availabilityIndex::add);
+    }
+    return released;
+  }
+
+  /**
+   * 查詢並鎖定多個商品的保留庫存
+   * 須在交易中呼叫，交易結束前其他交易無法修改這些商品的庫存
+   * @param productIds 商品ID集合
+   * @return 商品ID與保留庫存的對應，不存在的商品不包含在內
+   */
+  public Map<Integer, Integer> findLockedStockForUpdate(Collection<Integer> productIds) {
+    Map<Integer, Integer> lockedStock = new HashMap<>();
+    if (productIds.isEmpty()) {
+      return lockedStock;
+    }
+    String sql = "SELECT ProductID, LockedStock FROM Products WHERE ProductID IN (" +
+        placeholders(productIds.size()) + ") FOR UPDATE";
+    jdbcTemplate.query(sql, rs -> {
+      lockedStock.put(rs.getInt("ProductID"), rs.getInt("LockedStock"));
+    }, productIds.toArray());
+    return lockedStock;
+  }
+
+  /**
+   * 建立庫存預留帳本的寫回記錄資料表
+   * 每個已寫回資料庫的日誌檔以其序號記錄一筆，重播時據此略過已寫回的日誌檔
+   */
+  public void createLedgerFlushTableIfNotExists() {
+    jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS StockLedgerFlushes (" +
+        "SegmentID BIGINT NOT NULL PRIMARY KEY, " +
+        "FlushedAt DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+  }
+
+  /**
+   * 查詢日誌檔是否已寫回資料庫
+   * @param segmentId 日誌檔序號
+   * @return 是否已寫回
+   */
+  public boolean isLedgerSegmentApplied(long segmentId) {
+    String sql = "SELECT COUNT(*) FROM StockLedgerFlushes WHERE SegmentID = ?";
+    Integer count = jdbcTemplate.queryForObject(sql, Integer.class, segmentId);
+    return count != null && count > 0;
+  }
+
+  /**
+   * 查詢最後寫回的日誌檔序號
+   * @return 日誌檔序號，尚未寫回任何日誌檔時返回-1
+   */
+  public long findLastLedgerSegment() {
+    Long last = jdbcTemplate.queryForObject(
+        "SELECT COALESCE(MAX(SegmentID), -1) FROM StockLedgerFlushes", Long.class);
+    return last != null ? last : -1;
+  }
+
+  /**
+   * 批次套用日誌檔的庫存變動量，並記錄該日誌檔已寫回
+   * 供庫存預留帳本將記憶體中累積的變動寫回資料庫。
+   * 呼叫端須在交易中執行，變動量與寫回記錄一起提交；同一日誌檔重複寫回時
+   * 寫回記錄的主鍵衝突會使交易回滾，變動量不會套用兩次
+   * @param segmentId 日誌檔序號
+   * @param deltas 每筆依序為商品ID、實際庫存變動、鎖定庫存變動
+   * @param pruneBefore 小於此序號的寫回記錄已不再需要，一併刪除
+   */
+  public void applyStockDeltas(long segmentId, List<int[]> deltas, long pruneBefore) {
+    jdbcTemplate.update("INSERT INTO StockLedgerFlushes (SegmentID) VALUES (?)", segmentId);
+    jdbcTemplate.update("DELETE FROM StockLedgerFlushes WHERE SegmentID < ?", pruneBefore);
+    if (deltas.isEmpty()) {
+      return;
+    }
+
+    String sql = "UPDATE Products SET Stock = Stock + ?, LockedStock = LockedStock + ?, " +
+        "UpdatedAt = CURRENT_TIMESTAMP WHERE ProductID = ?";
+
+    jdbcTemplate.batchUpdate(sql,
+        deltas,
+        deltas.size(),
+        (PreparedStatement ps, int[] delta) -> {
+          ps.setInt(1, delta[1]);
+          ps.setInt(2, delta[2]);
+          ps.setInt(3, delta[0]);
+        });
+    deltas.forEach(delta -> {
+      productCache.invalidate(delta[0]);
+      availabilityIndex.add(delta[0], delta[1] - delta[2]);
+    });
+  }
+
+  /**
+   * 產生依商品ID對應數量的CASE運算式，並將參數依序加入參數列表
+   * @param quantities 商品ID與數量的對應
+   * @param params 參數列表
+   * @return CASE運算式
+   */
+  private String quantityCase(Map<Integer, Integer> quantities, List<Object> params) {
+    StringBuilder sql = new StringBuilder("CASE ProductID");
+    quantities.forEach((productId, quantity) -> {
+      sql.append(" WHEN ? THEN ?");
+      params.add(productId);
+      params.add(quantity);
+    });
+    return sql.append(" END").toString();
+  }
+
+  /**
+   * 產生指定數量的SQL參數佔位符
+   * @param count 參數數量
+   * @return 以逗號分隔的佔位符
    */
-  public boolean hasEnoughStock(int productId, int quantity) {
-    Product product = findById(productId);
-    return product != null && product.getAvailableStock() >= quantity;
+  private String placeholders(int count) {
+    return String.join(", ", Collections.nCopies(count, "?"));
   }
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+package fcu.iLive.repository.product;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 商品可用庫存索引
+ * 以商品ID為索引的基本型別計數陣列保存 Stock - LockedStock，啟動時由資料庫載入，
+ * 之後由 ProductRepository 的庫存操作同步更新，查詢可用庫存不需存取資料庫。
+ *
+ * 商品ID為連續的自動遞增值，因此以每段1024個的 AtomicIntegerArray 分段存放，
+ * 新商品超出範圍時才配置新的分段；在交易中的變動於提交後才套用，回滾的變動不會反映。
+ */
+@Component
+public class StockAvailabilityIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(StockAvailabilityIndex.class);
+
+  private static final int CHUNK_BITS = 10;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  // 未追蹤（不存在或已刪除）的商品
+  private static final int MISSING = Integer.MIN_VALUE;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  // 新增分段時複製整個陣列後再發布，讀取不需加鎖
+  private volatile AtomicIntegerArray[] chunks = new AtomicIntegerArray[0];
+
+  @PostConstruct
+  public void load() {
+    AtomicInteger count = new AtomicInteger();
+    jdbcTemplate.query("SELECT ProductID, Stock - LockedStock AS AvailableStock FROM Products", rs -> {
+      store(rs.getInt(1), rs.getInt(2));
+      count.incrementAndGet();
+    });
+    logger.info("Loaded availability of {} products", count.get());
+  }
+
+  /**
+   * 查詢商品的可用庫存
+   * @param productId 商品ID
+   * @return 可用庫存，商品不存在時返回null
+   */
+  public Integer get(int productId) {
+    AtomicIntegerArray chunk = chunkOf(productId);
+    if (chunk == null) {
+      return null;
+    }
+    int value = chunk.get(productId & CHUNK_MASK);
+    return value == MISSING ? null : value;
+  }
+
+  /**
+   * 查詢多個商品的可用庫存
+   * @param productIds 商品ID集合
+   * @return 商品ID與可用庫存的對應，依傳入順序排列，不存在的商品不會出現在結果中
+   */
+  public Map<Integer, Integer> getAll(Collection<Integer> productIds) {
+    Map<Integer, Integer> result = new LinkedHashMap<>();
+    for (Integer productId : productIds) {
+      Integer available = get(productId);
+      if (available != null) {
+        result.put(productId, available);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * 開始追蹤新增的商品，提交後才寫入
+   * 只用於新增商品；已追蹤商品的庫存變動一律以 add 套用變動量，
+   * 避免提交後寫入的絕對值覆蓋其他交易在這之間套用的變動
+   * @param productId 商品ID
+   * @param available 可用庫存
+   */
+  public void register(int productId, int available) {
+    afterCommit(() -> store(productId, available));
+  }
+
+  /**
+   * 增減商品的可用庫存，未追蹤的商品不處理
+   * @param productId 商品ID
+   * @param delta 變動量
+   */
+  public void add(int productId, int delta) {
+    if (delta == 0) {
+      return;
+    }
+    afterCommit(() -> {
+      AtomicIntegerArray chunk = chunkOf(productId);
+      if (chunk == null) {
+        return;
+      }
+      int index = productId & CHUNK_MASK;
+      chunk.getAndUpdate(index, value -> value == MISSING ? MISSING : value + delta);
+    });
+  }
+
+  /**
+   * 商品刪除後移除
+   * @param productId 商品ID
+   */
+  public void remove(int productId) {
+    afterCommit(() -> {
+      AtomicIntegerArray chunk = chunkOf(productId);
+      if (chunk != null) {
+        chunk.set(productId & CHUNK_MASK, MISSING);
+      }
+    });
+  }
+
+  /**
+   * 在交易中時於提交後執行，否則立即執行
+   */
+  private void afterCommit(Runnable action) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          action.run();
+        }
+      });
+    } else {
+      action.run();
+    }
+  }
+
+  private void store(int productId, int available) {
+    if (productId < 0) {
+      return;
+    }
+    AtomicIntegerArray chunk = chunkOf(productId);
+    if (chunk == null) {
+      chunk = createChunk(productId >>> CHUNK_BITS);
+    }
+    chunk.set(productId & CHUNK_MASK, available);
+  }
+
+  private AtomicIntegerArray chunkOf(int productId) {
+    if (productId < 0) {
+      return null;
+    }
+    int chunkIndex = productId >>> CHUNK_BITS;
+    AtomicIntegerArray[] current = chunks;
+    return chunkIndex < current.length ? current[chunkIndex] : null;
+  }
+
+  private synchronized AtomicIntegerArray createChunk(int chunkIndex) {
+    AtomicIntegerArray[] current = chunks;
+    if (chunkIndex < current.length && current[chunkIndex] != null) {
+      return current[chunkIndex];
+    }
+
+    AtomicIntegerArray chunk = new AtomicIntegerArray(CHUNK_SIZE);
+    for (int i = 0; i < CHUNK_SIZE; i++) {
+      chunk.set(i, MISSING);
+    }
+    AtomicIntegerArray[] grown = Arrays.copyOf(current, Math.max(current.length, chunkIndex + 1));
+    grown[chunkIndex] = chunk;
+    chunks = grown;
+    return chunk;
+  }
+}
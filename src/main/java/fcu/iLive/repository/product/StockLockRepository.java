@@ -1,10 +1,15 @@
 package fcu.iLive.repository.product;
 
+import fcu.iLive.constant.StockLockStatus;
 import fcu.iLive.model.product.StockLock;
+import fcu.iLive.util.BoundRowMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -17,26 +22,80 @@ public class StockLockRepository {
   @Autowired
   private JdbcTemplate jdbcTemplate;
 
+  /**
+   * ResultSet映射到StockLock物件
+   */
+  private static final BoundRowMapper<StockLock> STOCK_LOCK_ROW_MAPPER = BoundRowMapper.builder(StockLock::new)
+      .intColumn("LockId", StockLock::setLockId)
+      .intColumn("ProductId", StockLock::setProductId)
+      .intColumn("UserId", StockLock::setUserId)
+      .intColumn("OrderId", StockLock::setOrderId)
+      .intColumn("LockedQuantity", StockLock::setLockedQuantity)
+      .timestampColumn("ExpirationTime", StockLock::setExpirationTime)
+      .booleanColumn("IsValid", StockLock::setValid)
+      .intColumn("StatusId", StockLock::setStatusId)
+      .timestampColumn("CreatedAt", StockLock::setCreatedAt)
+      .timestampColumn("UpdatedAt", StockLock::setUpdatedAt)
+      .build();
+
+  // 單一INSERT語句的最大列數，避免語句過長
+  private static final int INSERT_CHUNK_SIZE = 500;
+
+  /**
+   * 庫存鎖定記錄查詢的欄位
+   */
+  private static final String STOCK_LOCK_COLUMNS = "LockId, ProductId, UserId, OrderId, LockedQuantity, " +
+      "ExpirationTime, IsValid, StatusId, CreatedAt, UpdatedAt";
+
   /**
    * 新增庫存鎖定記錄
    * @param stockLock 庫存鎖定實體
    * @return 新建記錄的ID
    */
   public int insert(StockLock stockLock) {
+    insertAll(List.of(stockLock));
+    return stockLock.getLockId();
+  }
+
+  /**
+   * 批次新增庫存鎖定記錄
+   * 以多列的單一INSERT寫入，並以 INSERT ... RETURNING 取回每筆記錄的鎖定ID，
+   * 不需另外查詢 LAST_INSERT_ID()，也不依賴驅動程式改寫批次語句
+   * @param stockLocks 庫存鎖定實體列表
+   */
+  public void insertAll(List<StockLock> stockLocks) {
+    for (int from = 0; from < stockLocks.size(); from += INSERT_CHUNK_SIZE) {
+      insertChunk(stockLocks.subList(from, Math.min(from + INSERT_CHUNK_SIZE, stockLocks.size())));
+    }
+  }
+
+  private void insertChunk(List<StockLock> stockLocks) {
     String sql = "INSERT INTO StockLocks (ProductId, UserId, OrderId, LockedQuantity, " +
-        "ExpirationTime, IsValid, StatusId) VALUES (?, ?, ?, ?, ?, ?, ?)";
-
-    jdbcTemplate.update(sql,
-        stockLock.getProductId(),
-        stockLock.getUserId(),
-        stockLock.getOrderId(),
-        stockLock.getLockedQuantity(),
-        stockLock.getExpirationTime(),
-        stockLock.isValid(),
-        stockLock.getStatusId()
-    );
-
-    return jdbcTemplate.queryForObject("SELECT LAST_INSERT_ID()", int.class);
+        "ExpirationTime, IsValid, StatusId) VALUES " +
+        String.join(", ", Collections.nCopies(stockLocks.size(), "(?, ?, ?, ?, ?, ?, ?)")) +
+        " RETURNING LockId";
+
+    List<Object> params = new ArrayList<>(stockLocks.size() * 7);
+    for (StockLock lock : stockLocks) {
+      params.add(lock.getProductId());
+      params.add(lock.getUserId());
+      params.add(lock.getOrderId());
+      params.add(lock.getLockedQuantity());
+      params.add(lock.getExpirationTime());
+      params.add(lock.isValid());
+      params.add(lock.getStatusId());
+    }
+
+    // RETURNING 依VALUES的順序回傳每一列的主鍵；
+    // 驅動程式的 getGeneratedKeys() 對多列INSERT只回傳第一個主鍵，因此不使用
+    List<Integer> lockIds = jdbcTemplate.queryForList(sql, Integer.class, params.toArray());
+    if (lockIds.size() != stockLocks.size()) {
+      throw new IllegalStateException("Inserted " + stockLocks.size() + " stock locks but got " +
+          lockIds.size() + " generated keys");
+    }
+    for (int i = 0; i < stockLocks.size(); i++) {
+      stockLocks.get(i).setLockId(lockIds.get(i));
+    }
   }
 
   /**
@@ -45,31 +104,90 @@ public class StockLockRepository {
    * @return 鎖定記錄列表
    */
   public List<StockLock> findValidByProductId(int productId) {
-    String sql = "SELECT * FROM StockLocks WHERE ProductId = ? AND IsValid = 1";
-    return jdbcTemplate.query(sql, this::mapRowToStockLock, productId);
+    String sql = "SELECT " + STOCK_LOCK_COLUMNS + " FROM StockLocks WHERE ProductId = ? AND IsValid = 1";
+    return jdbcTemplate.query(sql, STOCK_LOCK_ROW_MAPPER, productId);
   }
 
   /**
-   * 更新訂單相關的所有鎖定記錄狀態
+   * 以比較後設定的方式轉換訂單所有鎖定記錄的狀態
+   * 只更新目前狀態為 from 的記錄，並行的轉換中只有一個會更新到記錄
    * @param orderId 訂單ID
-   * @param statusId 新狀態ID
+   * @param from 預期的目前狀態
+   * @param to 新狀態
    * @return 更新的記錄數量
    */
-  public int updateOrderStatus(int orderId, int statusId) {
-    String sql = "UPDATE StockLocks SET StatusId = ?, " +
-        "UpdatedAt = CURRENT_TIMESTAMP WHERE OrderId = ?";
-    return jdbcTemplate.update(sql, statusId, orderId);
+  public int transitionOrder(int orderId, StockLockStatus from, StockLockStatus to) {
+    checkTransition(from, to);
+    String sql = "UPDATE StockLocks SET StatusId = ?, IsValid = ?, UpdatedAt = CURRENT_TIMESTAMP " +
+        "WHERE OrderId = ? AND StatusId = ?";
+    return jdbcTemplate.update(sql, to.getId(), to.isValid(), orderId, from.getId());
   }
 
   /**
-   * 標記過期的鎖定記錄
-   * @param currentTime 當前時間
+   * 以比較後設定的方式轉換指定鎖定記錄的狀態
+   * @param lockIds 鎖定記錄ID集合
+   * @param from 預期的目前狀態
+   * @param to 新狀態
    * @return 更新的記錄數量
    */
-  public int invalidateExpiredLocks(Timestamp currentTime) {
-    String sql = "UPDATE StockLocks SET IsValid = 0, StatusId = 4, " +
-        "UpdatedAt = CURRENT_TIMESTAMP WHERE ExpirationTime < ? AND IsValid = 1";
-    return jdbcTemplate.update(sql, currentTime);
+  public int transitionLocks(Collection<Integer> lockIds, StockLockStatus from, StockLockStatus to) {
+    checkTransition(from, to);
+    if (lockIds.isEmpty()) {
+      return 0;
+    }
+    String sql = "UPDATE StockLocks SET StatusId = ?, IsValid = ?, UpdatedAt = CURRENT_TIMESTAMP " +
+        "WHERE LockId IN (" + placeholders(lockIds.size()) + ") AND StatusId = ?";
+    List<Object> params = new ArrayList<>();
+    params.add(to.getId());
+    params.add(to.isValid());
+    params.addAll(lockIds);
+    params.add(from.getId());
+    return jdbcTemplate.update(sql, params.toArray());
+  }
+
+  /**
+   * 查詢所有鎖定中的記錄，用於啟動時重建訂單索引及逾期排程
+   * @return 鎖定記錄列表
+   */
+  public List<StockLock> findLocked() {
+    String sql = "SELECT " + STOCK_LOCK_COLUMNS + " FROM StockLocks WHERE StatusId = ?";
+    return jdbcTemplate.query(sql, STOCK_LOCK_ROW_MAPPER, StockLockStatus.LOCKED.getId());
+  }
+
+  /**
+   * 查詢並鎖定指定訂單中已逾期且仍在鎖定中的記錄
+   * 須在交易中呼叫，同一筆記錄不會被並行的逾期處理重複釋放
+   * @param orderIds 訂單ID集合
+   * @param currentTime 當前時間
+   * @return 鎖定記錄列表
+   */
+  public List<StockLock> findExpiredByOrderIds(Collection<Integer> orderIds, Timestamp currentTime) {
+    if (orderIds.isEmpty()) {
+      return new ArrayList<>();
+    }
+    String sql = "SELECT " + STOCK_LOCK_COLUMNS + " FROM StockLocks WHERE OrderId IN (" +
+        placeholders(orderIds.size()) + ") AND StatusId = ? AND ExpirationTime <= ? FOR UPDATE";
+    List<Object> params = new ArrayList<>(orderIds);
+    params.add(StockLockStatus.LOCKED.getId());
+    params.add(currentTime);
+    return jdbcTemplate.query(sql, STOCK_LOCK_ROW_MAPPER, params.toArray());
+  }
+
+  /**
+   * 依鎖定ID順序查詢並鎖定下一批已逾期且仍在鎖定中的記錄
+   * 以上一批最後的鎖定ID為游標，不使用OFFSET，每批的查詢成本相同
+   * 須在交易中呼叫
+   * @param afterLockId 上一批最後一筆的鎖定ID，第一批為0
+   * @param currentTime 逾期判斷的時間
+   * @param limit 每批筆數
+   * @return 鎖定記錄列表，依鎖定ID排序
+   */
+  public List<StockLock> findExpiredAfter(int afterLockId, Timestamp currentTime, int limit) {
+    String sql = "SELECT " + STOCK_LOCK_COLUMNS + " FROM StockLocks " +
+        "WHERE StatusId = ? AND ExpirationTime <= ? AND LockId > ? " +
+        "ORDER BY LockId LIMIT ? FOR UPDATE";
+    return jdbcTemplate.query(sql, STOCK_LOCK_ROW_MAPPER,
+        StockLockStatus.LOCKED.getId(), currentTime, afterLockId, limit);
   }
 
   /**
@@ -77,9 +195,9 @@ public class StockLockRepository {
    * @return 過期的鎖定記錄列表（最多100條）
    */
   public List<StockLock> findExpiredLocks() {
-    String sql = "SELECT * FROM StockLocks WHERE IsValid = 0 AND StatusId = 4 " +
+    String sql = "SELECT " + STOCK_LOCK_COLUMNS + " FROM StockLocks WHERE StatusId = ? " +
         "ORDER BY UpdatedAt DESC LIMIT 100";
-    return jdbcTemplate.query(sql, this::mapRowToStockLock);
+    return jdbcTemplate.query(sql, STOCK_LOCK_ROW_MAPPER, StockLockStatus.EXPIRED.getId());
   }
 
   /**
@@ -88,25 +206,22 @@ public class StockLockRepository {
    * @return 鎖定記錄列表
    */
   public List<StockLock> findByOrderId(int orderId) {
-    String sql = "SELECT * FROM StockLocks WHERE OrderId = ?";
-    return jdbcTemplate.query(sql, this::mapRowToStockLock, orderId);
+    String sql = "SELECT " + STOCK_LOCK_COLUMNS + " FROM StockLocks WHERE OrderId = ?";
+    return jdbcTemplate.query(sql, STOCK_LOCK_ROW_MAPPER, orderId);
+  }
+
+  private void checkTransition(StockLockStatus from, StockLockStatus to) {
+    if (!from.canTransitionTo(to)) {
+      throw new IllegalStateException("Invalid stock lock transition: " + from + " -> " + to);
+    }
   }
 
   /**
-   * ResultSet映射到StockLock物件
+   * 產生指定數量的SQL參數佔位符
+   * @param count 參數數量
+   * @return 以逗號分隔的佔位符
    */
-  private StockLock mapRowToStockLock(java.sql.ResultSet rs, int rowNum) throws java.sql.SQLException {
-    StockLock stockLock = new StockLock();
-    stockLock.setLockId(rs.getInt("LockId"));
-    stockLock.setProductId(rs.getInt("ProductId"));
-    stockLock.setUserId(rs.getInt("UserId"));
-    stockLock.setOrderId(rs.getInt("OrderId"));
-    stockLock.setLockedQuantity(rs.getInt("LockedQuantity"));
-    stockLock.setExpirationTime(rs.getTimestamp("ExpirationTime"));
-    stockLock.setValid(rs.getBoolean("IsValid"));
-    stockLock.setStatusId(rs.getInt("StatusId"));
-    stockLock.setCreatedAt(rs.getTimestamp("CreatedAt"));
-    stockLock.setUpdatedAt(rs.getTimestamp("UpdatedAt"));
-    return stockLock;
+  private String placeholders(int count) {
+    return String.join(", ", Collections.nCopies(count, "?"));
   }
 }
@@ -0,0 +1,108 @@
+package fcu.iLive.repository.user;
+
+import fcu.iLive.model.jwt.RefreshToken;
+import fcu.iLive.util.BoundRowMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * 刷新令牌資料訪問層
+ * 保存刷新令牌的輪替與撤銷狀態，啟動時載入記憶體索引
+ */
+@Repository
+public class RefreshTokenRepository {
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private static final BoundRowMapper<RefreshToken> REFRESH_TOKEN_ROW_MAPPER =
+      BoundRowMapper.builder(RefreshToken::new)
+          .stringColumn("TokenID", RefreshToken::setTokenId)
+          .stringColumn("FamilyID", RefreshToken::setFamilyId)
+          .intColumn("UserID", RefreshToken::setUserId)
+          .timestampColumn("ExpiresAt", RefreshToken::setExpiresAt)
+          .booleanColumn("Used", RefreshToken::setUsed)
+          .booleanColumn("Revoked", RefreshToken::setRevoked)
+          .build();
+
+  /**
+   * 建立刷新令牌資料表
+   */
+  @PostConstruct
+  public void createTableIfNotExists() {
+    jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS RefreshTokens (" +
+        "TokenID VARCHAR(36) NOT NULL PRIMARY KEY, " +
+        "FamilyID VARCHAR(36) NOT NULL, " +
+        "UserID INT NOT NULL, " +
+        "ExpiresAt DATETIME NOT NULL, " +
+        "Used TINYINT(1) NOT NULL DEFAULT 0, " +
+        "Revoked TINYINT(1) NOT NULL DEFAULT 0, " +
+        "CreatedAt DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+        "INDEX idx_refresh_tokens_family (FamilyID), " +
+        "INDEX idx_refresh_tokens_expires (ExpiresAt))");
+  }
+
+  /**
+   * 新增刷新令牌
+   * @param token 刷新令牌記錄
+   */
+  public void insert(RefreshToken token) {
+    String sql = "INSERT INTO RefreshTokens (TokenID, FamilyID, UserID, ExpiresAt, Used, Revoked) " +
+        "VALUES (?, ?, ?, ?, ?, ?)";
+    jdbcTemplate.update(sql,
+        token.getTokenId(),
+        token.getFamilyId(),
+        token.getUserId(),
+        token.getExpiresAt(),
+        token.isUsed(),
+        token.isRevoked());
+  }
+
+  /**
+   * 標記令牌已輪替
+   * 以條件式UPDATE確保同一令牌只能輪替一次
+   * @param tokenId 令牌ID
+   * @return 是否標記成功，令牌已被使用時返回false
+   */
+  public boolean markUsed(String tokenId) {
+    String sql = "UPDATE RefreshTokens SET Used = 1 WHERE TokenID = ? AND Used = 0 AND Revoked = 0";
+    return jdbcTemplate.update(sql, tokenId) == 1;
+  }
+
+  /**
+   * 撤銷整個令牌家族
+   * @param familyId 令牌家族ID
+   * @return 更新的記錄數量
+   */
+  public int revokeFamily(String familyId) {
+    String sql = "UPDATE RefreshTokens SET Revoked = 1 WHERE FamilyID = ?";
+    return jdbcTemplate.update(sql, familyId);
+  }
+
+  /**
+   * 查詢尚未過期的令牌
+   * @param now 目前時間
+   * @return 令牌記錄列表
+   */
+  public List<RefreshToken> findUnexpired(Timestamp now) {
+    String sql = "SELECT TokenID, FamilyID, UserID, ExpiresAt, Used, Revoked " +
+        "FROM RefreshTokens WHERE ExpiresAt > ?";
+    return jdbcTemplate.query(sql, REFRESH_TOKEN_ROW_MAPPER, now);
+  }
+
+  /**
+   * 刪除過期的令牌
+   * @param now 目前時間
+   * @param limit 單次刪除的最大筆數
+   * @return 刪除的記錄數量
+   */
+  public int deleteExpired(Timestamp now, int limit) {
+    String sql = "DELETE FROM RefreshTokens WHERE ExpiresAt <= ? LIMIT ?";
+    return jdbcTemplate.update(sql, now, limit);
+  }
+}
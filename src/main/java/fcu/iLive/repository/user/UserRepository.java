@@ -1,11 +1,19 @@
 package fcu.iLive.repository.user;
 
 import fcu.iLive.model.user.User;
+import fcu.iLive.util.BoundRowMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
 
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.List;
+
 @Repository
 public class UserRepository {
 
@@ -15,25 +23,51 @@ public class UserRepository {
   /**
    * 將資料庫結果映射到User物件
    */
-  private final RowMapper<User> userRowMapper = (rs, rowNum) -> {
-    User user = new User();
-    user.setUserId(rs.getInt("UserID"));
-    user.setUsername(rs.getString("Username"));
-    user.setPasswordHash(rs.getString("PasswordHash"));
-    user.setEmail(rs.getString("Email"));
-    user.setFullName(rs.getString("FullName"));
-    user.setPhoneNumber(rs.getString("PhoneNumber"));
-    user.setAddress(rs.getString("Address"));
-    user.setCreatedAt(rs.getTimestamp("CreatedAt").toLocalDateTime());
-    user.setUpdatedAt(rs.getTimestamp("UpdatedAt").toLocalDateTime());
-    return user;
-  };
+  private final RowMapper<User> userRowMapper = BoundRowMapper.builder(User::new)
+      .intColumn("UserID", User::setUserId)
+      .stringColumn("Username", User::setUsername)
+      .stringColumn("PasswordHash", User::setPasswordHash)
+      .stringColumn("Email", User::setEmail)
+      .stringColumn("FullName", User::setFullName)
+      .stringColumn("PhoneNumber", User::setPhoneNumber)
+      .stringColumn("Address", User::setAddress)
+      .dateTimeColumn("CreatedAt", User::setCreatedAt)
+      .dateTimeColumn("UpdatedAt", User::setUpdatedAt)
+      .build();
 
   /**
-   * 根據ID查找用戶
+   * 用戶查詢的欄位組合
+   * 一般資料讀取不查詢密碼雜湊，只有驗證密碼時才查詢
+   */
+  public enum Projection {
+    // 個人資料
+    PROFILE("UserID, Username, Email, FullName, PhoneNumber, Address, CreatedAt, UpdatedAt"),
+    // 個人資料加上密碼雜湊，用於登入及修改密碼
+    AUTH("UserID, Username, PasswordHash, Email, FullName, PhoneNumber, Address, CreatedAt, UpdatedAt");
+
+    private final String columns;
+
+    Projection(String columns) {
+      this.columns = columns;
+    }
+
+    public String columns() {
+      return columns;
+    }
+  }
+
+  /**
+   * 根據ID查找用戶，不含密碼雜湊
    */
   public User findById(int userId) {
-    String sql = "SELECT * FROM Users WHERE UserID = ?";
+    return findById(userId, Projection.PROFILE);
+  }
+
+  /**
+   * 根據ID查找指定欄位組合的用戶
+   */
+  public User findById(int userId, Projection projection) {
+    String sql = "SELECT " + projection.columns() + " FROM Users WHERE UserID = ?";
     return jdbcTemplate.query(sql, userRowMapper, userId)
         .stream()
         .findFirst()
@@ -41,10 +75,10 @@ public class UserRepository {
   }
 
   /**
-   * 根據用戶名查找用戶
+   * 根據用戶名查找用戶，包含密碼雜湊供登入驗證
    */
   public User findByUsername(String username) {
-    String sql = "SELECT * FROM Users WHERE Username = ?";
+    String sql = "SELECT " + Projection.AUTH.columns() + " FROM Users WHERE Username = ?";
     return jdbcTemplate.query(sql, userRowMapper, username)
         .stream()
         .findFirst()
@@ -55,52 +89,85 @@ public class UserRepository {
    * 根據Email查找用戶
    */
   public User findByEmail(String email) {
-    String sql = "SELECT * FROM Users WHERE Email = ?";
+    String sql = "SELECT " + Projection.PROFILE.columns() + " FROM Users WHERE Email = ?";
     return jdbcTemplate.query(sql, userRowMapper, email)
         .stream()
         .findFirst()
         .orElse(null);
   }
 
+  /**
+   * 查找用戶名、電子郵件或手機號碼任一相同的用戶
+   * 只取回比對用的三個欄位，註冊時以一次查詢完成重複檢查
+   */
+  public List<User> findConflicts(String username, String email, String phoneNumber) {
+    String sql = "SELECT Username, Email, PhoneNumber FROM Users " +
+        "WHERE Username = ? OR Email = ? OR PhoneNumber = ? LIMIT 3";
+    return jdbcTemplate.query(sql, userRowMapper, username, email, phoneNumber);
+  }
+
   /**
    * 保存新用戶
+   * 以資料庫產生的主鍵回填用戶ID，不再重新查詢
+   * @throws org.springframework.dao.DuplicateKeyException 違反唯一限制時拋出
    */
   public User save(User user) {
     String sql = "INSERT INTO Users (Username, PasswordHash, Email, FullName, PhoneNumber, Address) " +
         "VALUES (?, ?, ?, ?, ?, ?)";
 
-    jdbcTemplate.update(sql,
-        user.getUsername(),
-        user.getPasswordHash(),  // 這裡已經是加密後的密碼
-        user.getEmail(),
-        user.getFullName(),
-        user.getPhoneNumber(),
-        user.getAddress()
-    );
+    KeyHolder keyHolder = new GeneratedKeyHolder();
+    jdbcTemplate.update(connection -> {
+      PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+      ps.setString(1, user.getUsername());
+      ps.setString(2, user.getPasswordHash());  // 這裡已經是加密後的密碼
+      ps.setString(3, user.getEmail());
+      ps.setString(4, user.getFullName());
+      ps.setString(5, user.getPhoneNumber());
+      ps.setString(6, user.getAddress());
+      return ps;
+    }, keyHolder);
 
-    return findByUsername(user.getUsername());
+    LocalDateTime now = LocalDateTime.now();
+    User saved = new User();
+    saved.setUserId(keyHolder.getKey().intValue());
+    saved.setUsername(user.getUsername());
+    saved.setPasswordHash(user.getPasswordHash());
+    saved.setEmail(user.getEmail());
+    saved.setFullName(user.getFullName());
+    saved.setPhoneNumber(user.getPhoneNumber());
+    saved.setAddress(user.getAddress());
+    saved.setCreatedAt(now);
+    saved.setUpdatedAt(now);
+    return saved;
   }
   /**
-   * 更新用戶資料
+   * 更新用戶資料，不含密碼（密碼以 updatePasswordHash 更新）
    */
   public User update(User user) {
     String sql = "UPDATE Users SET Email = ?, FullName = ?, PhoneNumber = ?, " +
-        "Address = ?, PasswordHash = ? WHERE UserID = ?";
+        "Address = ? WHERE UserID = ?";
 
     jdbcTemplate.update(sql,
         user.getEmail(),
         user.getFullName(),
         user.getPhoneNumber(),
         user.getAddress(),
-        user.getPasswordHash(),
         user.getUserId()
     );
 
     return findById(user.getUserId());
   }
 
+  /**
+   * 更新密碼雜湊，用於修改密碼及登入時以新的成本重新雜湊
+   */
+  public void updatePasswordHash(int userId, String passwordHash) {
+    String sql = "UPDATE Users SET PasswordHash = ? WHERE UserID = ?";
+    jdbcTemplate.update(sql, passwordHash, userId);
+  }
+
   public User findByPhoneNumber(String phoneNumber) {
-    String sql = "SELECT * FROM Users WHERE PhoneNumber = ?";
+    String sql = "SELECT " + Projection.PROFILE.columns() + " FROM Users WHERE PhoneNumber = ?";
     return jdbcTemplate.query(sql, userRowMapper, phoneNumber)
             .stream()
             .findFirst()
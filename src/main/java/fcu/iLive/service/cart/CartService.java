@@ -1,9 +1,7 @@
 package fcu.iLive.service.cart;
 
 import fcu.iLive.model.cart.CartItems;
-import fcu.iLive.model.cart.ShoppingCart;
 import fcu.iLive.repository.cart.CartItemsRepository;
-import fcu.iLive.repository.cart.ShoppingCartRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -15,22 +13,14 @@ import java.util.List;
 public class CartService {
 
   @Autowired
-  private ShoppingCartRepository shoppingCartRepository;
+  private CartItemsRepository cartItemsRepository;
 
   @Autowired
-  private CartItemsRepository cartItemsRepository;
+  private ShoppingCartService shoppingCartService;
 
   // 確保用戶有購物車並返回購物車ID
   private int ensureUserHasCart(int userId) {
-    ShoppingCart cart = shoppingCartRepository.findByUserId(userId);
-    if (cart == null) {
-      // 創建新購物車
-      cart = new ShoppingCart();
-      cart.setUserId(userId);
-      cart.setCreatedAt(LocalDateTime.now());
-      cart = shoppingCartRepository.save(cart);
-    }
-    return cart.getCartId();
+    return shoppingCartService.getOrCreateCartId(userId);
   }
 
   // 添加商品到購物車
@@ -67,8 +57,8 @@ public class CartService {
     }
 
     // 檢查該商品是否屬於用戶的購物車
-    ShoppingCart cart = shoppingCartRepository.findByUserId(userId);
-    if (cart == null || item.getCartId() != cart.getCartId()) {
+    Integer cartId = shoppingCartService.findCartId(userId);
+    if (cartId == null || item.getCartId() != cartId) {
       throw new RuntimeException("無權操作此購物車項目");
     }
 
@@ -85,8 +75,8 @@ public class CartService {
     }
 
     // 檢查該商品是否屬於用戶的購物車
-    ShoppingCart cart = shoppingCartRepository.findByUserId(userId);
-    if (cart == null || item.getCartId() != cart.getCartId()) {
+    Integer cartId = shoppingCartService.findCartId(userId);
+    if (cartId == null || item.getCartId() != cartId) {
       throw new RuntimeException("無權操作此購物車項目");
     }
 
@@ -96,8 +86,8 @@ public class CartService {
   // 清空購物車
   @Transactional
   public void clearCartItems(int userId, int cartId) {
-    ShoppingCart cart = shoppingCartRepository.findByUserId(userId);
-    if (cart == null || cart.getCartId() != cartId) {
+    Integer userCartId = shoppingCartService.findCartId(userId);
+    if (userCartId == null || userCartId != cartId) {
       throw new RuntimeException("無權操作此購物車");
     }
 
@@ -1,11 +1,30 @@
 package fcu.iLive.service.cart;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fcu.iLive.exception.BusinessException;
 import fcu.iLive.model.cart.ShoppingCart;
 import fcu.iLive.repository.cart.ShoppingCartRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
 public class ShoppingCartService {
@@ -13,6 +32,44 @@ public class ShoppingCartService {
   @Autowired
   private ShoppingCartRepository shoppingCartRepository;
 
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Value("${cart.id-cache.max-size:10000}")
+  private long cacheMaxSize;
+
+  @Value("${cart.id-cache.expire-minutes:30}")
+  private long cacheExpireMinutes;
+
+  // 等待其他請求建立購物車的最長時間
+  @Value("${cart.create-wait-ms:5000}")
+  private long createWaitMillis;
+
+  // 用戶ID -> 購物車ID，購物車建立後不會變更；只放入已提交的購物車
+  private Cache<Integer, Integer> cartIds;
+
+  // 用戶ID -> 建立中的購物車，建立的交易提交後完成，回滾時以例外完成
+  private final Map<Integer, CompletableFuture<Integer>> pendingCreations = new ConcurrentHashMap<>();
+
+  // 建立購物車一律使用獨立交易，等待中的請求不需等呼叫端的整個交易結束
+  private TransactionTemplate createTransaction;
+
+  @PostConstruct
+  public void init() {
+    cartIds = Caffeine.newBuilder()
+        .maximumSize(cacheMaxSize)
+        .expireAfterAccess(Duration.ofMinutes(cacheExpireMinutes))
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cartIds, "cart-ids");
+
+    createTransaction = new TransactionTemplate(transactionManager);
+    createTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
   // 獲取或創建購物車
   public ShoppingCart getOrCreateCart(int userId) {
     // 先查找是否已有購物車
@@ -20,15 +77,67 @@ public class ShoppingCartService {
 
     // 如果沒有購物車，創建新的
     if (cart == null) {
-      cart = new ShoppingCart();
-      cart.setUserId(userId);
-      cart.setCreatedAt(LocalDateTime.now());
-      cart = shoppingCartRepository.save(cart);
+      getOrCreateCartId(userId);
+      cart = shoppingCartRepository.findByUserId(userId);
+    } else {
+      cartIds.put(userId, cart.getCartId());
     }
 
     return cart;
   }
 
+  /**
+   * 獲取用戶的購物車ID，沒有購物車時建立
+   * 同一用戶同時第一次存取時只會建立一台購物車，其他請求等待建立的交易提交後取得同一台；
+   * 查詢與建立都不在鎖內進行
+   * @param userId 用戶ID
+   * @return 購物車ID
+   */
+  public int getOrCreateCartId(int userId) {
+    while (true) {
+      Integer cartId = findCartId(userId);
+      if (cartId != null) {
+        return cartId;
+      }
+
+      CompletableFuture<Integer> creation = new CompletableFuture<>();
+      CompletableFuture<Integer> pending = pendingCreations.putIfAbsent(userId, creation);
+      if (pending == null) {
+        return createCart(userId, creation);
+      }
+
+      // 其他請求正在建立，等待其交易結束後重新查詢
+      try {
+        pending.get(createWaitMillis, TimeUnit.MILLISECONDS);
+      } catch (ExecutionException e) {
+        // 建立的交易已回滾，重新嘗試
+      } catch (TimeoutException e) {
+        throw new BusinessException("購物車建立中，請稍後再試");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new BusinessException("購物車建立中斷");
+      }
+    }
+  }
+
+  /**
+   * 獲取用戶的購物車ID
+   * @param userId 用戶ID
+   * @return 購物車ID，沒有購物車時為null
+   */
+  public Integer findCartId(int userId) {
+    Integer cartId = cartIds.getIfPresent(userId);
+    if (cartId != null) {
+      return cartId;
+    }
+    ShoppingCart cart = shoppingCartRepository.findByUserId(userId);
+    if (cart == null) {
+      return null;
+    }
+    cartIds.put(userId, cart.getCartId());
+    return cart.getCartId();
+  }
+
   // 根據用戶ID查找購物車
   public ShoppingCart findByUserId(int userId) {
     return shoppingCartRepository.findByUserId(userId);
@@ -38,4 +147,56 @@ public class ShoppingCartService {
   public ShoppingCart saveCart(ShoppingCart cart) {
     return shoppingCartRepository.save(cart);
   }
-}
\ No newline at end of file
+
+  /**
+   * 建立購物車，由取得建立權的請求呼叫
+   * 在獨立交易（REQUIRES_NEW）中進行，不受呼叫端交易回滾影響；
+   * 建立權取得前其他請求可能已提交購物車，因此先重新查詢；
+   * 購物車ID在獨立交易提交後才放入快取並通知等待中的請求，回滾時以例外通知
+   */
+  private int createCart(int userId, CompletableFuture<Integer> creation) {
+    try {
+      return createTransaction.execute(status -> {
+        ShoppingCart existing = shoppingCartRepository.findByUserId(userId);
+        int cartId;
+        if (existing != null) {
+          cartId = existing.getCartId();
+        } else {
+          ShoppingCart cart = new ShoppingCart();
+          cart.setUserId(userId);
+          cart.setCreatedAt(LocalDateTime.now());
+          cartId = shoppingCartRepository.save(cart).getCartId();
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            publish(userId, cartId, creation);
+          }
+
+          @Override
+          public void afterCompletion(int status) {
+            if (status != STATUS_COMMITTED) {
+              fail(userId, creation, new IllegalStateException("Cart creation rolled back"));
+            }
+          }
+        });
+        return cartId;
+      });
+    } catch (RuntimeException e) {
+      fail(userId, creation, e);
+      throw e;
+    }
+  }
+
+  private void fail(int userId, CompletableFuture<Integer> creation, Throwable cause) {
+    pendingCreations.remove(userId, creation);
+    creation.completeExceptionally(cause);
+  }
+
+  private void publish(int userId, int cartId, CompletableFuture<Integer> creation) {
+    cartIds.put(userId, cartId);
+    pendingCreations.remove(userId, creation);
+    creation.complete(cartId);
+  }
+}
@@ -1,18 +1,21 @@
 package fcu.iLive.service.order;
 
+import fcu.iLive.constant.OrderStatusEnum;
 import fcu.iLive.exception.BusinessException;
 import fcu.iLive.model.cart.CartItems;
-import fcu.iLive.model.cart.ShoppingCart;
 import fcu.iLive.model.order.Order;
 import fcu.iLive.model.order.OrderItem;
+import fcu.iLive.model.order.OrderPage;
 import fcu.iLive.model.product.Product;
 import fcu.iLive.model.product.StockLock;
 import fcu.iLive.repository.cart.CartItemsRepository;
-import fcu.iLive.repository.cart.ShoppingCartRepository;
 import fcu.iLive.repository.order.OrderRepository;
 import fcu.iLive.repository.product.ProductRepository;
-import fcu.iLive.repository.product.StockLockRepository;
+import fcu.iLive.service.cart.ShoppingCartService;
+import fcu.iLive.service.product.StockLockService;
+import fcu.iLive.service.product.StockReservationLedger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -20,7 +23,10 @@ import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 訂單服務
@@ -36,17 +42,26 @@ public class OrderService {
   private CartItemsRepository cartItemsRepository;
 
   @Autowired
-  private ShoppingCartRepository shoppingCartRepository;
+  private ShoppingCartService shoppingCartService;
 
   @Autowired
   private ProductRepository productRepository;
 
   @Autowired
-  private StockLockRepository stockLockRepository;
+  private StockReservationLedger stockLedger;
+
+  @Autowired
+  private StockLockService stockLockService;
 
   @Autowired
   private PaymentService paymentService;
 
+  @Value("${order.page.default-size:20}")
+  private int defaultPageSize;
+
+  @Value("${order.page.max-size:100}")
+  private int maxPageSize;
+
   /**
    * 從購物車創建訂單
    * @param userId 用戶ID
@@ -56,29 +71,46 @@ public class OrderService {
   @Transactional
   public int createOrderFromCart(int userId, String shippingAddress) {
     // 1. 獲取購物車信息
-    ShoppingCart cart = shoppingCartRepository.findByUserId(userId);
-    if (cart == null) {
+    Integer cartId = shoppingCartService.findCartId(userId);
+    if (cartId == null) {
       throw new BusinessException("購物車不存在");
     }
 
-    List<CartItems> cartItems = cartItemsRepository.findByCartId(cart.getCartId());
+    List<CartItems> cartItems = cartItemsRepository.findByCartId(cartId);
     if (cartItems.isEmpty()) {
       throw new BusinessException("購物車為空");
     }
 
-    // 2. 計算訂單金額並準備訂單項目
+    // 2. 一次查詢購物車內所有商品
+    Map<Integer, Integer> quantities = new LinkedHashMap<>();
+    for (CartItems item : cartItems) {
+      if (item.getQuantity() <= 0) {
+        throw new BusinessException("商品數量無效：" + item.getProductId());
+      }
+      quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+    }
+
+    Map<Integer, Product> products = new HashMap<>();
+    for (Product product : productRepository.findByIds(quantities.keySet(), ProductRepository.Projection.LIST)) {
+      products.put(product.getProductId(), product);
+    }
+
+    // 3. 計算訂單金額並準備訂單項目
     BigDecimal totalAmount = BigDecimal.ZERO;
     List<OrderItem> orderItems = new ArrayList<>();
     List<StockLock> stockLocks = new ArrayList<>();
+    Timestamp expirationTime = Timestamp.valueOf(LocalDateTime.now().plusMinutes(30));
 
     for (CartItems item : cartItems) {
-      Product product = productRepository.findById(item.getProductId());
+      Product product = products.get(item.getProductId());
       if (product == null) {
         throw new BusinessException("商品不存在：" + item.getProductId());
       }
 
-      // 檢查庫存
-      if (!productRepository.hasEnoughStock(product.getProductId(), item.getQuantity())) {
+      // 依查詢結果預先檢查庫存，實際鎖定以帳本結果為準
+      // 啟用帳本時資料庫庫存可能尚未寫回，因此不做預先檢查
+      if (!stockLedger.isEnabled()
+          && product.getAvailableStock() < quantities.get(product.getProductId())) {
         throw new BusinessException("商品庫存不足：" + product.getName());
       }
 
@@ -98,35 +130,33 @@ public class OrderService {
       stockLock.setProductId(product.getProductId());
       stockLock.setUserId(userId);
       stockLock.setLockedQuantity(item.getQuantity());
-      stockLock.setStatusId(1); // 訂單鎖定狀態
-      stockLock.setExpirationTime(Timestamp.valueOf(LocalDateTime.now().plusMinutes(30)));
-      stockLock.setValid(true);
+      stockLock.setExpirationTime(expirationTime);
       stockLocks.add(stockLock);
     }
 
-    // 3. 創建訂單
+    // 4. 一次鎖定所有商品庫存
+    if (!stockLedger.reserve(quantities)) {
+      throw new BusinessException("商品庫存不足，請重新確認購物車");
+    }
+
+    // 5. 創建訂單
     Order order = new Order();
     order.setUserId(userId);
     order.setTotalAmount(totalAmount);
     order.setShippingAddress(shippingAddress);
-    order.setStatusId(1); // 初始狀態
+    order.setStatusId(OrderStatusEnum.PENDING_PAYMENT.getId());
 
     int orderId = orderRepository.create(order);
 
-    // 4. 創建訂單項目
+    // 6. 創建訂單項目
     orderItems.forEach(item -> item.setOrderId(orderId));
     orderRepository.createOrderItems(orderItems);
 
-    // 5. 創建庫存鎖定
-    stockLocks.forEach(lock -> {
-      lock.setOrderId(orderId);
-      int lockId = stockLockRepository.insert(lock);
-      productRepository.updateLockedStock(lock.getProductId(),
-          productRepository.findById(lock.getProductId()).getLockedStock() + lock.getLockedQuantity());
-    });
+    // 7. 批次創建庫存鎖定記錄
+    stockLockService.lockOrder(orderId, stockLocks);
 
-    // 6. 清空購物車
-    cartItemsRepository.deleteAllByCartId(cart.getCartId());
+    // 8. 清空購物車
+    cartItemsRepository.deleteAllByCartId(cartId);
 
     return orderId;
   }
@@ -141,7 +171,7 @@ public class OrderService {
   public void processCreditCardPayment(int orderId, int userId, String cardNumber) {
     // 1. 驗證訂單
     Order order = validateOrderOwnership(orderId, userId);
-    if (order.getStatusId() != 1) {
+    if (order.getStatusId() != OrderStatusEnum.PENDING_PAYMENT.getId()) {
       throw new BusinessException("訂單狀態不正確，僅允許對未支付訂單進行支付");
     }
 
@@ -164,7 +194,7 @@ public class OrderService {
   public void processApplePayPayment(int orderId, int userId, String applePayToken) {
     // 1. 驗證訂單
     Order order = validateOrderOwnership(orderId, userId);
-    if (order.getStatusId() != 1) {
+    if (order.getStatusId() != OrderStatusEnum.PENDING_PAYMENT.getId()) {
       throw new BusinessException("訂單狀態不正確，僅允許對未支付訂單進行支付");
     }
 
@@ -186,43 +216,15 @@ public class OrderService {
   public void cancelOrder(int orderId, int userId) {
     // 1. 驗證訂單
     Order order = validateOrderOwnership(orderId, userId);
-    if (order.getStatusId() >= 3) {
+    if (order.getStatusId() >= OrderStatusEnum.PAID.getId()) {
       throw new BusinessException("已付款訂單不可取消");
     }
 
-    // 2. 釋放庫存鎖定
-    List<StockLock> stockLocks = stockLockRepository.findByOrderId(orderId);
-    for (StockLock lock : stockLocks) {
-      if (!productRepository.releaseLockedStock(lock.getProductId(), lock.getLockedQuantity())) {
-        throw new BusinessException("庫存釋放失敗");
-      }
-    }
-
-    // 3. 更新訂單和庫存鎖定狀態
-    orderRepository.updateStatus(orderId, 4); // 已取消
-    stockLockRepository.updateOrderStatus(orderId, 3); // 取消狀態
-  }
+    // 2. 釋放庫存鎖定，已被付款或逾期處理的訂單在此失敗
+    stockLockService.handleOrderCancelled(orderId);
 
-  /**
-   * 處理過期訂單
-   * 系統自動執行，處理超時未付款訂單
-   */
-  @Transactional
-  public void handleExpiredOrders() {
-    LocalDateTime now = LocalDateTime.now();
-    Timestamp currentTime = Timestamp.valueOf(now);
-
-    // 1. 標記過期的鎖定記錄
-    stockLockRepository.invalidateExpiredLocks(currentTime);
-
-    // 2. 獲取並處理過期記錄
-    List<StockLock> expiredLocks = stockLockRepository.findExpiredLocks();
-    for (StockLock lock : expiredLocks) {
-      productRepository.releaseLockedStock(lock.getProductId(), lock.getLockedQuantity());
-      if (lock.getOrderId() > 0) {
-        orderRepository.updateStatus(lock.getOrderId(), 4); // 更新為已取消
-      }
-    }
+    // 3. 更新訂單狀態
+    orderRepository.updateStatus(orderId, OrderStatusEnum.CANCELLED.getId());
   }
 
   /**
@@ -236,12 +238,30 @@ public class OrderService {
   }
 
   /**
-   * 獲取用戶的所有訂單
+   * 分頁獲取用戶的訂單
    * @param userId 用戶ID
-   * @return 訂單列表
+   * @param page 頁碼，從1開始
+   * @param size 每頁筆數，未指定時使用預設值
+   * @param summary 是否只回傳訂單摘要（不含訂單項目）
+   * @return 訂單分頁結果
    */
-  public List<Order> getUserOrders(int userId) {
-    return orderRepository.findByUserId(userId);
+  public OrderPage getUserOrders(int userId, int page, Integer size, boolean summary) {
+    int limit = size != null ? size : defaultPageSize;
+    if (page < 1) {
+      throw new BusinessException("頁碼須從1開始");
+    }
+    if (limit <= 0 || limit > maxPageSize) {
+      throw new BusinessException("每頁筆數須介於1到" + maxPageSize + "之間");
+    }
+
+    int total = orderRepository.countByUserId(userId);
+    // 以long計算，頁碼很大時不會溢位成負數的OFFSET；超出總筆數時不需查詢
+    long offset = (long) (page - 1) * limit;
+    List<Order> orders = offset < total
+        ? orderRepository.findByUserId(userId, (int) offset, limit, !summary)
+        : new ArrayList<>();
+
+    return new OrderPage(orders, page, limit, total);
   }
 
   /**
@@ -252,19 +272,11 @@ public class OrderService {
   private void completePayment(Order order, String paymentMethod) {
     // 1. 更新付款方式、訂單狀態和付款時間
     orderRepository.updatePaymentMethod(order.getOrderId(), paymentMethod);
-    orderRepository.updateStatus(order.getOrderId(), 3); // 已付款狀態
+    orderRepository.updateStatus(order.getOrderId(), OrderStatusEnum.PAID.getId());
     orderRepository.updateOrderDate(order.getOrderId()); // 更新付款時間
 
-    // 2. 處理庫存
-    List<StockLock> stockLocks = stockLockRepository.findByOrderId(order.getOrderId());
-    for (StockLock lock : stockLocks) {
-      if (!productRepository.deductStock(lock.getProductId(), lock.getLockedQuantity())) {
-        throw new BusinessException("庫存扣除失敗：商品ID " + lock.getProductId());
-      }
-    }
-
-    // 3. 更新庫存鎖定狀態
-    stockLockRepository.updateOrderStatus(order.getOrderId(), 2); // 已付款狀態
+    // 2. 轉換庫存鎖定狀態並扣除庫存，已被取消或逾期處理的訂單在此失敗，整筆交易回滾
+    stockLockService.handleOrderPaid(order.getOrderId());
   }
 
   /**
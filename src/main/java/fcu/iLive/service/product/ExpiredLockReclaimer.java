@@ -0,0 +1,122 @@
+package fcu.iLive.service.product;
+
+import fcu.iLive.model.product.StockLock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 逾期庫存鎖定回收
+ * 依鎖定ID順序分批走訪已逾期但仍在鎖定中的記錄，每批在獨立交易中釋放庫存並標記完成，
+ * 中途失敗時已完成的批次不受影響，下次從游標位置繼續。
+ *
+ * 一般情況下逾期由 StockLockExpiryService 的時間輪處理，
+ * 此流程在啟動時及定期執行，回收停機或排程失敗時遺留的記錄。
+ * 進度透過 actuator 指標公開（stock.locks.reclaim.*）
+ */
+@Service
+public class ExpiredLockReclaimer {
+
+  private static final Logger logger = LoggerFactory.getLogger(ExpiredLockReclaimer.class);
+
+  @Autowired
+  private StockLockService stockLockService;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${stock.lock.reclaim.chunk-size:200}")
+  private int chunkSize;
+
+  // 上一批最後處理的鎖定ID，整輪完成後歸零
+  private final AtomicInteger cursor = new AtomicInteger();
+
+  private Counter reclaimedLocks;
+  private Counter reclaimedChunks;
+  private Counter failedChunks;
+
+  @PostConstruct
+  public void init() {
+    reclaimedLocks = Counter.builder("stock.locks.reclaim.locks")
+        .description("回收的逾期庫存鎖定筆數")
+        .register(meterRegistry);
+    reclaimedChunks = Counter.builder("stock.locks.reclaim.chunks")
+        .description("完成的回收批次數")
+        .register(meterRegistry);
+    failedChunks = Counter.builder("stock.locks.reclaim.failures")
+        .description("失敗的回收批次數")
+        .register(meterRegistry);
+    Gauge.builder("stock.locks.reclaim.cursor", cursor, AtomicInteger::get)
+        .description("目前回收進度的鎖定ID")
+        .register(meterRegistry);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void reclaimOnStartup() {
+    reclaim();
+  }
+
+  /**
+   * 定期回收遺留的逾期鎖定
+   */
+  @Scheduled(fixedDelayString = "${stock.lock.reclaim.interval-ms:3600000}",
+      initialDelayString = "${stock.lock.reclaim.interval-ms:3600000}")
+  public void scheduledReclaim() {
+    reclaim();
+  }
+
+  /**
+   * 由游標位置開始分批回收，直到沒有剩餘的逾期記錄或發生錯誤
+   * @return 本次回收的鎖定筆數
+   */
+  public synchronized int reclaim() {
+    // 以開始時間為準，執行期間才逾期的記錄交給時間輪或下一輪處理
+    Timestamp currentTime = new Timestamp(System.currentTimeMillis());
+    int total = 0;
+
+    while (true) {
+      List<StockLock> chunk;
+      try {
+        chunk = stockLockService.reclaimExpired(cursor.get(), currentTime, chunkSize);
+      } catch (Exception e) {
+        failedChunks.increment();
+        logger.error("回收逾期庫存鎖定失敗，下次由鎖定ID {} 之後繼續", cursor.get(), e);
+        return total;
+      }
+
+      if (chunk.isEmpty()) {
+        cursor.set(0);
+        break;
+      }
+
+      reclaimedChunks.increment();
+      reclaimedLocks.increment(chunk.size());
+      total += chunk.size();
+
+      // 不足一批表示已到最後，不需再查詢
+      if (chunk.size() < chunkSize) {
+        cursor.set(0);
+        break;
+      }
+      cursor.set(chunk.get(chunk.size() - 1).getLockId());
+    }
+
+    if (total > 0) {
+      logger.info("已回收 {} 筆逾期庫存鎖定", total);
+    }
+    return total;
+  }
+}
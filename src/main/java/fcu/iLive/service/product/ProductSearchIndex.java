@@ -0,0 +1,621 @@
+package fcu.iLive.service.product;
+
+import fcu.iLive.model.product.Product;
+import fcu.iLive.repository.product.ProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商品搜尋索引
+ * 在記憶體中維護商品名稱、品牌、描述的反向索引，搜尋時不需查詢資料庫
+ *
+ * 斷詞規則：英文與數字以連續字元為一個詞，查詢時以前綴比對；
+ * 中日韓文字同時索引單字與相鄰兩字（bigram），查詢時以bigram比對，單一字時以單字比對。
+ * 索引中的商品資料僅在新增、修改、刪除時更新，庫存欄位可能與資料庫有落差，
+ * 由 ProductService 以即時的可用庫存覆蓋後才回傳；
+ * 在交易中呼叫時於提交後才更新，回滾的修改不會出現在搜尋結果中。
+ *
+ * 有關鍵字時以BM25F計分，名稱與品牌的命中權重較高，並以固定大小的堆積取前K筆。
+ */
+@Service
+public class ProductSearchIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(ProductSearchIndex.class);
+
+  private static final int[] EMPTY = new int[0];
+
+  // 索引欄位：名稱、品牌、描述
+  private static final int FIELD_NAME = 0;
+  private static final int FIELD_BRAND = 1;
+  private static final int FIELD_DESCRIPTION = 2;
+  private static final int FIELD_COUNT = 3;
+
+  // 各欄位權重
+  private static final double[] FIELD_BOOSTS = {3.0, 2.0, 1.0};
+
+  // BM25 參數
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+
+  // 依分數由低到高，同分時商品ID大者較低，堆積頂端為目前最差的結果
+  private static final Comparator<Hit> WORST_FIRST = Comparator
+      .comparingDouble((Hit hit) -> hit.score)
+      .thenComparing(hit -> hit.productId, Comparator.reverseOrder());
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // 商品ID -> 商品
+  private final NavigableMap<Integer, Product> products = new TreeMap<>();
+
+  // 詞 -> 依商品ID排序的posting list
+  private final NavigableMap<String, int[]> postings = new TreeMap<>();
+
+  // 商品ID -> 詞 -> 各欄位出現次數，計分與移除商品時使用
+  private final Map<Integer, NavigableMap<String, int[]>> termFrequencies = new HashMap<>();
+
+  // 商品ID -> 各欄位的詞數
+  private final Map<Integer, int[]> fieldLengths = new HashMap<>();
+
+  // 各欄位詞數總和，用來計算平均長度
+  private final long[] totalFieldLengths = new long[FIELD_COUNT];
+
+  // 依價格、商品ID排序的價格（以分為單位）與對應的商品ID
+  private long[] sortedPrices = new long[0];
+  private int[] priceProductIds = EMPTY;
+
+  private volatile boolean ready;
+
+  /**
+   * 應用程式啟動完成後建立索引
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void rebuild() {
+    long start = System.currentTimeMillis();
+    List<Product> all = productRepository.findAll();
+
+    lock.writeLock().lock();
+    try {
+      products.clear();
+      postings.clear();
+      termFrequencies.clear();
+      fieldLengths.clear();
+      Arrays.fill(totalFieldLengths, 0);
+      for (Product product : all) {
+        addDocument(product);
+      }
+      rebuildPriceIndex();
+      ready = true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    logger.info("商品搜尋索引建立完成，共 {} 項商品、{} 個詞，耗時 {} ms",
+        all.size(), postings.size(), System.currentTimeMillis() - start);
+  }
+
+  /**
+   * 新增或更新商品的索引，在交易中時於提交後執行
+   * @param product 商品實體
+   */
+  public void index(Product product) {
+    if (product == null) {
+      return;
+    }
+    afterCommit(() -> {
+      lock.writeLock().lock();
+      try {
+        removeDocument(product.getProductId());
+        addDocument(product);
+        insertPrice(toCents(product.getPrice()), product.getProductId());
+      } finally {
+        lock.writeLock().unlock();
+      }
+    });
+  }
+
+  /**
+   * 移除商品的索引，在交易中時於提交後執行
+   * @param productId 商品ID
+   */
+  public void remove(int productId) {
+    afterCommit(() -> {
+      lock.writeLock().lock();
+      try {
+        removeDocument(productId);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    });
+  }
+
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * 搜尋商品
+   * @param keyword 關鍵字，所有詞都必須出現在名稱、品牌或描述中；只有標點符號等無法斷詞的關鍵字沒有符合的商品
+   * @param minPrice 最低價格
+   * @param maxPrice 最高價格
+   * @param offset 略過的筆數
+   * @param limit 回傳的最大筆數
+   * @return 符合條件的商品列表，有關鍵字時依相關度排序，否則依商品ID排序
+   */
+  public List<Product> search(String keyword, BigDecimal minPrice, BigDecimal maxPrice, int offset, int limit) {
+    lock.readLock().lock();
+    try {
+      int[] matches = null;
+      boolean hasKeyword = keyword != null && !keyword.trim().isEmpty();
+      Set<String> queryTerms = hasKeyword ? tokenizeQuery(keyword) : Collections.emptySet();
+      if (hasKeyword && queryTerms.isEmpty()) {
+        return new ArrayList<>();
+      }
+
+      for (String term : queryTerms) {
+        int[] termMatches = lookup(term);
+        matches = matches == null ? termMatches : intersect(matches, termMatches);
+        if (matches.length == 0) {
+          return new ArrayList<>();
+        }
+      }
+
+      if (minPrice != null || maxPrice != null) {
+        int[] priceMatches = priceRange(minPrice, maxPrice);
+        matches = matches == null ? priceMatches : intersect(matches, priceMatches);
+      }
+
+      List<Product> result = new ArrayList<>();
+
+      // 沒有關鍵字時不需計分，直接依商品ID取出指定範圍
+      if (queryTerms.isEmpty()) {
+        int[] filtered = matches;
+        Iterable<Integer> ids = filtered == null ? products.keySet() : () -> Arrays.stream(filtered).iterator();
+        int skipped = 0;
+        for (int productId : ids) {
+          if (result.size() >= limit) {
+            break;
+          }
+          if (skipped++ >= offset) {
+            result.add(products.get(productId));
+          }
+        }
+        return result;
+      }
+
+      // 以固定大小的堆積保留前 offset + limit 名
+      int window = offset + limit;
+      PriorityQueue<Hit> heap = new PriorityQueue<>(Math.min(window, matches.length) + 1, WORST_FIRST);
+      for (int productId : matches) {
+        Hit hit = new Hit(productId, score(productId, queryTerms));
+        if (heap.size() < window) {
+          heap.add(hit);
+        } else if (WORST_FIRST.compare(hit, heap.peek()) > 0) {
+          heap.poll();
+          heap.add(hit);
+        }
+      }
+
+      List<Hit> ranked = new ArrayList<>(heap);
+      ranked.sort(WORST_FIRST.reversed());
+      for (int i = offset; i < ranked.size(); i++) {
+        result.add(products.get(ranked.get(i).productId));
+      }
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * 計算商品對查詢的BM25F分數
+   * 英文與數字詞以前綴比對，多個索引詞符合時取分數最高者
+   */
+  private double score(int productId, Set<String> queryTerms) {
+    NavigableMap<String, int[]> frequencies = termFrequencies.get(productId);
+    int[] lengths = fieldLengths.get(productId);
+    double total = 0;
+
+    for (String queryTerm : queryTerms) {
+      Map<String, int[]> matched = isCjk(queryTerm.codePointAt(0))
+          ? frequencies.subMap(queryTerm, true, queryTerm, true)
+          : frequencies.subMap(queryTerm, true, queryTerm + Character.MAX_VALUE, false);
+
+      double best = 0;
+      for (Map.Entry<String, int[]> entry : matched.entrySet()) {
+        best = Math.max(best, termScore(entry.getKey(), entry.getValue(), lengths));
+      }
+      total += best;
+    }
+    return total;
+  }
+
+  private double termScore(String term, int[] fieldFrequencies, int[] lengths) {
+    int documentCount = products.size();
+    int documentFrequency = postings.getOrDefault(term, EMPTY).length;
+    double idf = Math.log(1 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+
+    // 各欄位依長度正規化後加權合計
+    double weighted = 0;
+    for (int field = 0; field < FIELD_COUNT; field++) {
+      if (fieldFrequencies[field] == 0) {
+        continue;
+      }
+      double averageLength = Math.max(1.0, (double) totalFieldLengths[field] / documentCount);
+      double normalization = 1 - B + B * lengths[field] / averageLength;
+      weighted += FIELD_BOOSTS[field] * fieldFrequencies[field] / normalization;
+    }
+    return idf * weighted * (K1 + 1) / (K1 + weighted);
+  }
+
+  /**
+   * 將文字切成索引用的詞
+   * @param text 原始文字
+   * @return 詞列表（可能重複）
+   */
+  static List<String> tokenize(String text) {
+    return tokenize(text, false);
+  }
+
+  /**
+   * 斷詞
+   * 索引時連續的中日韓文字產生所有單字與bigram；
+   * 查詢時只取bigram，僅有單一字時才取單字
+   * @param text 原始文字
+   * @param query 是否為查詢字串
+   * @return 詞列表（可能重複）
+   */
+  private static List<String> tokenize(String text, boolean query) {
+    List<String> tokens = new ArrayList<>();
+    if (text == null) {
+      return tokens;
+    }
+
+    String lower = text.toLowerCase(Locale.ROOT);
+    StringBuilder word = new StringBuilder();
+    List<String> cjkRun = new ArrayList<>();
+
+    for (int i = 0; i < lower.length(); ) {
+      int codePoint = lower.codePointAt(i);
+      i += Character.charCount(codePoint);
+
+      if (isCjk(codePoint)) {
+        flushWord(word, tokens);
+        cjkRun.add(new String(Character.toChars(codePoint)));
+      } else {
+        flushCjkRun(cjkRun, tokens, query);
+        if (Character.isLetterOrDigit(codePoint)) {
+          word.appendCodePoint(codePoint);
+        } else {
+          flushWord(word, tokens);
+        }
+      }
+    }
+    flushWord(word, tokens);
+    flushCjkRun(cjkRun, tokens, query);
+    return tokens;
+  }
+
+  private static Set<String> tokenizeQuery(String keyword) {
+    return new LinkedHashSet<>(tokenize(keyword, true));
+  }
+
+  private static boolean isCjk(int codePoint) {
+    Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+    return script == Character.UnicodeScript.HAN
+        || script == Character.UnicodeScript.HIRAGANA
+        || script == Character.UnicodeScript.KATAKANA
+        || script == Character.UnicodeScript.HANGUL;
+  }
+
+  private static void flushWord(StringBuilder word, List<String> tokens) {
+    if (word.length() > 0) {
+      tokens.add(word.toString());
+      word.setLength(0);
+    }
+  }
+
+  private static void flushCjkRun(List<String> run, List<String> tokens, boolean query) {
+    if (run.isEmpty()) {
+      return;
+    }
+    if (!query || run.size() == 1) {
+      tokens.addAll(run);
+    }
+    for (int i = 1; i < run.size(); i++) {
+      tokens.add(run.get(i - 1) + run.get(i));
+    }
+    run.clear();
+  }
+
+  /**
+   * 查詢單一詞的posting list，英文與數字詞以前綴比對
+   */
+  private int[] lookup(String term) {
+    if (isCjk(term.codePointAt(0))) {
+      return postings.getOrDefault(term, EMPTY);
+    }
+
+    NavigableMap<String, int[]> prefixed = postings.subMap(term, true, term + Character.MAX_VALUE, false);
+    if (prefixed.size() == 1) {
+      return prefixed.firstEntry().getValue();
+    }
+    int[] union = EMPTY;
+    for (int[] list : prefixed.values()) {
+      union = union(union, list);
+    }
+    return union;
+  }
+
+  private void addDocument(Product product) {
+    int productId = product.getProductId();
+    String[] fields = new String[FIELD_COUNT];
+    fields[FIELD_NAME] = product.getName();
+    fields[FIELD_BRAND] = product.getBrand();
+    fields[FIELD_DESCRIPTION] = product.getDescription();
+
+    NavigableMap<String, int[]> frequencies = new TreeMap<>();
+    int[] lengths = new int[FIELD_COUNT];
+    for (int field = 0; field < FIELD_COUNT; field++) {
+      List<String> tokens = tokenize(fields[field]);
+      lengths[field] = tokens.size();
+      totalFieldLengths[field] += tokens.size();
+      for (String token : tokens) {
+        frequencies.computeIfAbsent(token, key -> new int[FIELD_COUNT])[field]++;
+      }
+    }
+
+    for (String term : frequencies.keySet()) {
+      postings.put(term, insert(postings.getOrDefault(term, EMPTY), productId));
+    }
+    products.put(productId, product);
+    termFrequencies.put(productId, frequencies);
+    fieldLengths.put(productId, lengths);
+  }
+
+  private boolean removeDocument(int productId) {
+    NavigableMap<String, int[]> frequencies = termFrequencies.remove(productId);
+    if (frequencies == null) {
+      return false;
+    }
+    for (String term : frequencies.keySet()) {
+      int[] remaining = delete(postings.get(term), productId);
+      if (remaining.length == 0) {
+        postings.remove(term);
+      } else {
+        postings.put(term, remaining);
+      }
+    }
+    int[] lengths = fieldLengths.remove(productId);
+    for (int field = 0; field < FIELD_COUNT; field++) {
+      totalFieldLengths[field] -= lengths[field];
+    }
+    Product removed = products.remove(productId);
+    removePrice(toCents(removed.getPrice()), productId);
+    return true;
+  }
+
+  /**
+   * 依價格重建排序後的價格陣列，同價格依商品ID排序，僅在重建整個索引時使用
+   */
+  private void rebuildPriceIndex() {
+    int size = products.size();
+    long[][] pairs = new long[size][];
+    int i = 0;
+    for (Product product : products.values()) {
+      pairs[i++] = new long[]{toCents(product.getPrice()), product.getProductId()};
+    }
+    Arrays.sort(pairs, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+    long[] prices = new long[size];
+    int[] ids = new int[size];
+    for (i = 0; i < size; i++) {
+      prices[i] = pairs[i][0];
+      ids[i] = (int) pairs[i][1];
+    }
+    sortedPrices = prices;
+    priceProductIds = ids;
+  }
+
+  /**
+   * 以二分搜尋找出位置後插入單一商品的價格，不需重新排序
+   */
+  private void insertPrice(long cents, int productId) {
+    int index = pricePosition(cents, productId);
+    int size = sortedPrices.length;
+    long[] prices = new long[size + 1];
+    int[] ids = new int[size + 1];
+    System.arraycopy(sortedPrices, 0, prices, 0, index);
+    System.arraycopy(priceProductIds, 0, ids, 0, index);
+    prices[index] = cents;
+    ids[index] = productId;
+    System.arraycopy(sortedPrices, index, prices, index + 1, size - index);
+    System.arraycopy(priceProductIds, index, ids, index + 1, size - index);
+    sortedPrices = prices;
+    priceProductIds = ids;
+  }
+
+  /**
+   * 以二分搜尋找出並移除單一商品的價格
+   */
+  private void removePrice(long cents, int productId) {
+    int index = pricePosition(cents, productId);
+    int size = sortedPrices.length;
+    if (index >= size || sortedPrices[index] != cents || priceProductIds[index] != productId) {
+      return;
+    }
+    long[] prices = new long[size - 1];
+    int[] ids = new int[size - 1];
+    System.arraycopy(sortedPrices, 0, prices, 0, index);
+    System.arraycopy(priceProductIds, 0, ids, 0, index);
+    System.arraycopy(sortedPrices, index + 1, prices, index, size - index - 1);
+    System.arraycopy(priceProductIds, index + 1, ids, index, size - index - 1);
+    sortedPrices = prices;
+    priceProductIds = ids;
+  }
+
+  /**
+   * 找出第一個不小於（價格、商品ID）的位置
+   */
+  private int pricePosition(long cents, int productId) {
+    int low = 0;
+    int high = sortedPrices.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sortedPrices[mid] < cents || (sortedPrices[mid] == cents && priceProductIds[mid] < productId)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * 在交易中時於提交後執行，否則立即執行
+   */
+  private static void afterCommit(Runnable action) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          action.run();
+        }
+      });
+    } else {
+      action.run();
+    }
+  }
+
+  /**
+   * 以二分搜尋找出價格區間內的商品ID
+   * @return 依商品ID排序的商品ID陣列
+   */
+  private int[] priceRange(BigDecimal minPrice, BigDecimal maxPrice) {
+    int from = minPrice != null ? lowerBound(sortedPrices, toCents(minPrice)) : 0;
+    int to = maxPrice != null ? lowerBound(sortedPrices, toCents(maxPrice) + 1) : sortedPrices.length;
+    if (from >= to) {
+      return EMPTY;
+    }
+    int[] ids = Arrays.copyOfRange(priceProductIds, from, to);
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  private static int lowerBound(long[] values, long key) {
+    int low = 0;
+    int high = values.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (values[mid] < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static long toCents(BigDecimal price) {
+    if (price == null) {
+      return 0;
+    }
+    return price.setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValue();
+  }
+
+  private static int[] insert(int[] list, int value) {
+    int index = Arrays.binarySearch(list, value);
+    if (index >= 0) {
+      return list;
+    }
+    index = -index - 1;
+    int[] result = new int[list.length + 1];
+    System.arraycopy(list, 0, result, 0, index);
+    result[index] = value;
+    System.arraycopy(list, index, result, index + 1, list.length - index);
+    return result;
+  }
+
+  private static int[] delete(int[] list, int value) {
+    int index = Arrays.binarySearch(list, value);
+    if (index < 0) {
+      return list;
+    }
+    int[] result = new int[list.length - 1];
+    System.arraycopy(list, 0, result, 0, index);
+    System.arraycopy(list, index + 1, result, index, list.length - index - 1);
+    return result;
+  }
+
+  private static int[] intersect(int[] a, int[] b) {
+    int[] result = new int[Math.min(a.length, b.length)];
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        result[k++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, k);
+  }
+
+  private static int[] union(int[] a, int[] b) {
+    int[] result = new int[a.length + b.length];
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < a.length || j < b.length) {
+      if (j >= b.length || (i < a.length && a[i] < b[j])) {
+        result[k++] = a[i++];
+      } else if (i >= a.length || b[j] < a[i]) {
+        result[k++] = b[j++];
+      } else {
+        result[k++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, k);
+  }
+
+  private static final class Hit {
+    private final int productId;
+    private final double score;
+
+    private Hit(int productId, double score) {
+      this.productId = productId;
+      this.score = score;
+    }
+  }
+}
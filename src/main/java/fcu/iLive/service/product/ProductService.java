@@ -1,13 +1,28 @@
 package fcu.iLive.service.product;
 
+import fcu.iLive.exception.BusinessException;
 import fcu.iLive.model.product.Product;
+import fcu.iLive.model.product.ProductPage;
+import fcu.iLive.model.product.ProductSummary;
+import fcu.iLive.repository.product.ProductCache;
 import fcu.iLive.repository.product.ProductRepository;
+import fcu.iLive.repository.product.StockAvailabilityIndex;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class ProductService {
@@ -15,16 +30,90 @@ public class ProductService {
   @Autowired
   private ProductRepository productRepository;
 
+  @Autowired
+  private ProductCache productCache;
+
+  @Value("${product.page.default-size:20}")
+  private int defaultPageSize;
+
+  @Value("${product.page.max-size:100}")
+  private int maxPageSize;
+
+  @Value("${product.search.default-limit:20}")
+  private int defaultSearchLimit;
+
+  @Value("${product.search.max-limit:100}")
+  private int maxSearchLimit;
+
+  // offset + limit 的上限，限制排序堆積的大小
+  @Value("${product.search.max-window:1000}")
+  private int maxSearchWindow;
+
+  @Autowired
+  private StockReservationLedger stockLedger;
+
+  @Autowired
+  private ProductSearchIndex searchIndex;
+
+  @Autowired
+  private StockAvailabilityIndex availabilityIndex;
+
+  // 批次查詢商品的數量上限
+  @Value("${product.batch.max-ids:100}")
+  private int maxBatchIds;
+
+  // 批次查詢可用庫存的商品數量上限
+  @Value("${product.availability.max-ids:100}")
+  private int maxAvailabilityIds;
+
   @Transactional
   public Product createProduct(Product product) {
     // 確保新商品的 lockedStock 為 0
     product.setLockedStock(0);
     product.setStatus(1);
-    return productRepository.save(product);
+    Product saved = productRepository.save(product);
+    searchIndex.index(saved);
+    return saved;
   }
 
   public Product getProduct(int productId) {
-    return productRepository.findById(productId);
+    return productCache.get(productId, productRepository::findById);
+  }
+
+  /**
+   * 批次查詢多個商品
+   * 先由快取取得，未命中的商品以一次查詢載入
+   * @param productIds 商品ID集合，重複的ID只查詢一次
+   * @return 商品列表，依傳入順序排列，不存在的商品不會出現在結果中
+   * @throws BusinessException 未指定商品或商品數量超過上限時拋出
+   */
+  public List<Product> getProducts(Collection<Integer> productIds) {
+    if (productIds == null || productIds.isEmpty()) {
+      throw new BusinessException("請指定商品ID");
+    }
+    LinkedHashSet<Integer> uniqueIds = new LinkedHashSet<>(productIds);
+    if (uniqueIds.size() > maxBatchIds) {
+      throw new BusinessException("一次最多查詢 " + maxBatchIds + " 項商品");
+    }
+
+    Map<Integer, Product> found = productCache.getAll(uniqueIds, missing -> {
+      Map<Integer, Product> loaded = new HashMap<>();
+      List<Product> products = productRepository.findByIds(
+          new ArrayList<>(missing), ProductRepository.Projection.DETAIL);
+      for (Product product : products) {
+        loaded.put(product.getProductId(), product);
+      }
+      return loaded;
+    });
+
+    List<Product> products = new ArrayList<>(found.size());
+    for (Integer productId : uniqueIds) {
+      Product product = found.get(productId);
+      if (product != null) {
+        products.add(product);
+      }
+    }
+    return products;
   }
 
   public List<Product> getAllProducts() {
@@ -35,10 +124,79 @@ public class ProductService {
     return productRepository.findAllActive();
   }
 
+  /**
+   * 以游標分頁查詢商品摘要
+   * @param activeOnly 是否只查詢上架商品
+   * @param sort 排序欄位：id 或 price
+   * @param order 排序方向：asc 或 desc
+   * @param cursor 上一頁回傳的 nextCursor，第一頁為null
+   * @param size 每頁筆數，未指定時使用預設值
+   * @return 商品分頁結果
+   */
+  public ProductPage getProductPage(boolean activeOnly, String sort, String order, String cursor, Integer size) {
+    boolean sortByPrice;
+    if (sort == null || sort.equalsIgnoreCase("id")) {
+      sortByPrice = false;
+    } else if (sort.equalsIgnoreCase("price")) {
+      sortByPrice = true;
+    } else {
+      throw new BusinessException("不支援的排序欄位：" + sort);
+    }
+
+    boolean descending;
+    if (order == null || order.equalsIgnoreCase("asc")) {
+      descending = false;
+    } else if (order.equalsIgnoreCase("desc")) {
+      descending = true;
+    } else {
+      throw new BusinessException("不支援的排序方向：" + order);
+    }
+
+    int limit = size != null ? size : defaultPageSize;
+    if (limit <= 0 || limit > maxPageSize) {
+      throw new BusinessException("每頁筆數須介於1到" + maxPageSize + "之間");
+    }
+
+    // 解析游標：依ID排序為「商品ID」，依價格排序為「價格:商品ID」
+    BigDecimal afterPrice = null;
+    Integer afterId = null;
+    if (cursor != null && !cursor.isEmpty()) {
+      try {
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+        if (parts.length != (sortByPrice ? 2 : 1)) {
+          throw new IllegalArgumentException();
+        }
+        afterId = Integer.parseInt(parts[parts.length - 1]);
+        afterPrice = sortByPrice ? new BigDecimal(parts[0]) : null;
+      } catch (IllegalArgumentException e) {
+        throw new BusinessException("無效的分頁游標");
+      }
+    }
+
+    // 多查一筆用來判斷是否還有下一頁
+    List<ProductSummary> items = productRepository.findPage(
+        activeOnly, sortByPrice, descending, afterPrice, afterId, limit + 1);
+    boolean hasMore = items.size() > limit;
+    if (hasMore) {
+      items = new ArrayList<>(items.subList(0, limit));
+    }
+
+    String nextCursor = null;
+    if (hasMore) {
+      ProductSummary last = items.get(items.size() - 1);
+      String key = sortByPrice
+          ? last.getPrice().toPlainString() + ":" + last.getProductId()
+          : String.valueOf(last.getProductId());
+      nextCursor = Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    return new ProductPage(items, nextCursor, hasMore);
+  }
+
   @Transactional
   public void updateProduct(Product product) {
     // 檢查商品是否存在
-    Product existingProduct = productRepository.findById(product.getProductId());
+    Product existingProduct = productRepository.findById(product.getProductId(), ProductRepository.Projection.STOCK);
     if (existingProduct == null) {
       throw new RuntimeException("Product not found");
     }
@@ -46,25 +204,115 @@ public class ProductService {
     // 保持現有的 lockedStock 值不變
     product.setLockedStock(existingProduct.getLockedStock());
     productRepository.update(product);
+    stockLedger.adjustStock(product.getProductId(), product.getStock() - existingProduct.getStock());
+    searchIndex.index(productRepository.findById(product.getProductId()));
   }
 
   @Transactional
   public void deleteProduct(int productId) {
     productRepository.delete(productId);
+    stockLedger.remove(productId);
+    searchIndex.remove(productId);
   }
 
   public List<Product> getProductsByCategory(int categoryId) {
     return productRepository.findByCategory(categoryId);
   }
 
-  public List<Product> searchProducts(String keyword, BigDecimal minPrice, BigDecimal maxPrice) {
-    return productRepository.search(keyword, minPrice, maxPrice);
+  /**
+   * 搜尋商品
+   * @param keyword 關鍵字
+   * @param minPrice 最低價格
+   * @param maxPrice 最高價格
+   * @param offset 略過的筆數
+   * @param limit 回傳的最大筆數，未指定時使用預設值
+   * @return 有關鍵字時依相關度排序的商品列表
+   */
+  public List<Product> searchProducts(String keyword, BigDecimal minPrice, BigDecimal maxPrice,
+                                      int offset, Integer limit) {
+    int size = limit != null ? limit : defaultSearchLimit;
+    if (size <= 0 || size > maxSearchLimit) {
+      throw new BusinessException("每頁筆數須介於1到" + maxSearchLimit + "之間");
+    }
+    // 以減法比較，offset 很大時不會溢位而通過檢查
+    if (offset < 0 || offset > maxSearchWindow - size) {
+      throw new BusinessException("搜尋結果最多只能查看前" + maxSearchWindow + "筆");
+    }
+
+    // 索引建立完成前退回資料庫查詢
+    if (!searchIndex.isReady()) {
+      return productRepository.search(keyword, minPrice, maxPrice, offset, size);
+    }
+    List<Product> hits = searchIndex.search(keyword, minPrice, maxPrice, offset, size);
+    List<Product> result = new ArrayList<>(hits.size());
+    for (Product hit : hits) {
+      result.add(withLiveStock(hit));
+    }
+    return result;
+  }
+
+  /**
+   * 以即時庫存覆蓋搜尋索引中的商品，索引中的庫存只在商品修改時更新
+   * 鎖定庫存以帳本為準，帳本未追蹤時沿用索引中的值；實際庫存為可用庫存加上鎖定庫存，
+   * 回傳的可用庫存與 getAvailability 一致。回傳複本，不修改索引中的商品
+   */
+  private Product withLiveStock(Product indexed) {
+    Product product = new Product();
+    BeanUtils.copyProperties(indexed, product);
+
+    Integer available = getAvailability(indexed.getProductId());
+    if (available != null) {
+      Integer locked = stockLedger.getLocked(indexed.getProductId());
+      int lockedStock = locked != null ? locked : indexed.getLockedStock();
+      product.setLockedStock(lockedStock);
+      product.setStock(available + lockedStock);
+    }
+    return product;
   }
 
   // 獲取可用庫存（總庫存 - 鎖定庫存）
   public int getAvailableStock(int productId) {
-    Product product = productRepository.findById(productId);
-    return product != null ? product.getAvailableStock() : 0;
+    Integer available = getAvailability(productId);
+    return available != null ? available : 0;
+  }
+
+  /**
+   * 查詢商品的可用庫存，只讀取記憶體不查詢資料庫
+   * 啟用庫存帳本時以帳本為準，其餘由可用庫存索引提供
+   * @param productId 商品ID
+   * @return 可用庫存，商品不存在時返回null
+   */
+  public Integer getAvailability(int productId) {
+    Integer available = stockLedger.getAvailable(productId);
+    if (available == null) {
+      available = availabilityIndex.get(productId);
+    }
+    return available != null ? Math.max(available, 0) : null;
+  }
+
+  /**
+   * 批次查詢多個商品的可用庫存
+   * @param productIds 商品ID集合，重複的ID只查詢一次
+   * @return 商品ID與可用庫存的對應，依傳入順序排列，不存在的商品不會出現在結果中
+   * @throws BusinessException 未指定商品或商品數量超過上限時拋出
+   */
+  public Map<Integer, Integer> getAvailability(Collection<Integer> productIds) {
+    if (productIds == null || productIds.isEmpty()) {
+      throw new BusinessException("請指定商品ID");
+    }
+    LinkedHashSet<Integer> uniqueIds = new LinkedHashSet<>(productIds);
+    if (uniqueIds.size() > maxAvailabilityIds) {
+      throw new BusinessException("一次最多查詢 " + maxAvailabilityIds + " 項商品");
+    }
+
+    Map<Integer, Integer> result = new LinkedHashMap<>();
+    for (Integer productId : uniqueIds) {
+      Integer available = getAvailability(productId);
+      if (available != null) {
+        result.put(productId, available);
+      }
+    }
+    return result;
   }
 
 
@@ -0,0 +1,95 @@
+package fcu.iLive.service.product;
+
+import fcu.iLive.util.HierarchicalTimingWheel;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 庫存鎖定逾期排程
+ * 以階層式時間輪記錄每筆鎖定中訂單的到期時間，到期後數秒內即可釋放庫存，
+ * 不需定期掃描整個 StockLocks 資料表。
+ *
+ * 時間輪只保存在記憶體中，啟動時由 StockLockService 依 StockLocks 資料表重新登記；
+ * 停機期間已到期的訂單會在啟動後的第一次推進時一併取出。
+ */
+@Service
+public class StockLockExpiryService {
+
+  // 每層64格，三層以1秒為一格時可涵蓋約3天，更遠的到期時間暫存於溢出清單
+  private static final int SLOT_BITS = 6;
+  private static final int LEVEL_COUNT = 3;
+
+  @Value("${stock.lock.expiry.tick-ms:1000}")
+  private long tickMillis;
+
+  private HierarchicalTimingWheel wheel;
+
+  @PostConstruct
+  public void init() {
+    wheel = new HierarchicalTimingWheel(tickMillis, SLOT_BITS, LEVEL_COUNT, System.currentTimeMillis());
+  }
+
+  /**
+   * 登記訂單的鎖定到期時間
+   * 在交易中呼叫時於提交後才登記
+   * @param orderId 訂單ID
+   * @param expirationTime 到期時間
+   */
+  public void schedule(int orderId, Timestamp expirationTime) {
+    afterCommit(() -> wheel.schedule(orderId, expirationTime.getTime()));
+  }
+
+  /**
+   * 訂單已付款或取消後移除登記
+   * 在交易中呼叫時於提交後才移除
+   * @param orderId 訂單ID
+   */
+  public void cancel(int orderId) {
+    afterCommit(() -> wheel.cancel(orderId));
+  }
+
+  /**
+   * 推進時間輪並取出已到期的訂單
+   * @return 已到期的訂單ID
+   */
+  public List<Integer> pollExpired() {
+    return wheel.advance(System.currentTimeMillis());
+  }
+
+  /**
+   * 處理失敗的訂單延後重試
+   * @param orderIds 訂單ID集合
+   * @param delayMillis 延後時間
+   */
+  public void retryLater(Collection<Integer> orderIds, long delayMillis) {
+    long retryAt = System.currentTimeMillis() + delayMillis;
+    orderIds.forEach(orderId -> wheel.schedule(orderId, retryAt));
+  }
+
+  /**
+   * 登記中的訂單數量
+   */
+  public int size() {
+    return wheel.size();
+  }
+
+  private void afterCommit(Runnable action) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          action.run();
+        }
+      });
+    } else {
+      action.run();
+    }
+  }
+}
@@ -1,28 +1,100 @@
 package fcu.iLive.service.product;
 
+import fcu.iLive.constant.StockLockStatus;
+import fcu.iLive.exception.BusinessException;
 import fcu.iLive.model.product.StockLock;
+import fcu.iLive.repository.order.OrderRepository;
 import fcu.iLive.repository.product.StockLockRepository;
-import fcu.iLive.repository.product.ProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 庫存鎖定服務層
  * 處理庫存鎖定相關的業務邏輯
+ *
+ * 鎖定記錄只能由鎖定中轉換為已付款、已取消或已逾期（見 StockLockStatus），
+ * 轉換以 UPDATE ... WHERE StatusId = 鎖定中 完成，並行的付款、取消與逾期只有一個會成功，
+ * 庫存因此只會被扣減或釋放一次。鎖定中的記錄依訂單保存在記憶體索引中，付款與取消不需再查詢。
  */
 @Service
 public class StockLockService {
 
+  private static final Logger logger = LoggerFactory.getLogger(StockLockService.class);
+
   @Autowired
   private StockLockRepository stockLockRepository;
 
   @Autowired
-  private ProductRepository productRepository;
+  private StockReservationLedger stockLedger;
+
+  @Autowired
+  private OrderRepository orderRepository;
+
+  @Autowired
+  private StockLockExpiryService expiryService;
+
+  // 訂單ID -> 鎖定中的記錄，啟動時由資料表重建
+  private final Map<Integer, List<StockLock>> lockedByOrder = new ConcurrentHashMap<>();
+
+  /**
+   * 啟動完成後重建訂單索引及逾期排程
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void rebuild() {
+    Map<Integer, List<StockLock>> locks = new HashMap<>();
+    for (StockLock lock : stockLockRepository.findLocked()) {
+      locks.computeIfAbsent(lock.getOrderId(), orderId -> new ArrayList<>()).add(lock);
+    }
+    locks.forEach((orderId, orderLocks) -> {
+      lockedByOrder.put(orderId, List.copyOf(orderLocks));
+      expiryService.schedule(orderId, earliestExpiration(orderLocks));
+    });
+    logger.info("Indexed locked stock of {} orders", locks.size());
+  }
+
+  /**
+   * 內部方法：寫入訂單的庫存鎖定記錄
+   * 記錄一次寫入，提交後加入訂單索引並登記逾期時間
+   * @param orderId 訂單ID
+   * @param locks 鎖定記錄，庫存須已預留
+   */
+  @Transactional
+  public void lockOrder(int orderId, List<StockLock> locks) {
+    locks.forEach(lock -> {
+      lock.setOrderId(orderId);
+      lock.setStatusId(StockLockStatus.LOCKED.getId());
+      lock.setValid(true);
+    });
+    stockLockRepository.insertAll(locks);
+    expiryService.schedule(orderId, earliestExpiration(locks));
+
+    List<StockLock> inserted = List.copyOf(locks);
+    afterCommit(() -> lockedByOrder.merge(orderId, inserted, (current, added) -> {
+      List<StockLock> merged = new ArrayList<>(current);
+      merged.addAll(added);
+      return List.copyOf(merged);
+    }));
+  }
 
   /**
    * 內部方法：創建訂單時的庫存鎖定
@@ -33,8 +105,8 @@ public class StockLockService {
    */
   @Transactional
   public void handleOrderCreated(int orderId, int productId, int quantity, int userId) {
-    // 檢查庫存
-    if (!productRepository.hasEnoughStock(productId, quantity)) {
+    // 鎖定庫存，不足時直接失敗
+    if (!stockLedger.reserve(productId, quantity)) {
       throw new RuntimeException("商品庫存不足");
     }
 
@@ -42,17 +114,10 @@ public class StockLockService {
     StockLock stockLock = new StockLock();
     stockLock.setProductId(productId);
     stockLock.setUserId(userId);
-    stockLock.setOrderId(orderId);
     stockLock.setLockedQuantity(quantity);
     stockLock.setExpirationTime(calculateExpirationTime());
-    stockLock.setValid(true);
-    stockLock.setStatusId(1); // 下單鎖定狀態
 
-    stockLockRepository.insert(stockLock);
-
-    // 更新商品鎖定庫存
-    productRepository.updateLockedStock(productId,
-        productRepository.findById(productId).getLockedStock() + quantity);
+    lockOrder(orderId, List.of(stockLock));
   }
 
   /**
@@ -61,18 +126,13 @@ public class StockLockService {
    */
   @Transactional
   public void handleOrderPaid(int orderId) {
-    List<StockLock> locks = stockLockRepository.findByOrderId(orderId);
+    // 先轉換狀態，搶先取消或逾期的訂單在此失敗
+    List<StockLock> locks = transition(orderId, StockLockStatus.PAID);
 
-    for (StockLock lock : locks) {
-      // 更新實際庫存和鎖定庫存
-      int quantity = lock.getLockedQuantity();
-      if (!productRepository.deductStock(lock.getProductId(), quantity)) {
-        throw new RuntimeException("庫存扣減失敗");
-      }
+    // 同一商品的數量合併後一次更新實際庫存和鎖定庫存
+    if (!stockLedger.deduct(sumByProduct(locks))) {
+      throw new BusinessException("庫存扣減失敗：訂單ID " + orderId);
     }
-
-    // 更新鎖定狀態為已支付
-    stockLockRepository.updateOrderStatus(orderId, 2);
   }
 
   /**
@@ -81,27 +141,151 @@ public class StockLockService {
    */
   @Transactional
   public void handleOrderCancelled(int orderId) {
-    List<StockLock> locks = stockLockRepository.findByOrderId(orderId);
+    // 先轉換狀態，搶先付款或逾期的訂單在此失敗
+    List<StockLock> locks = transition(orderId, StockLockStatus.CANCELLED);
 
-    for (StockLock lock : locks) {
-      // 釋放保留庫存
-      int quantity = lock.getLockedQuantity();
-      productRepository.releaseLockedStock(lock.getProductId(), quantity);
+    // 釋放保留庫存
+    if (!stockLedger.release(sumByProduct(locks))) {
+      throw new BusinessException("庫存釋放失敗：訂單ID " + orderId);
     }
+  }
 
-    // 更新鎖定狀態為已取消
-    stockLockRepository.updateOrderStatus(orderId, 3);
+  /**
+   * 將訂單鎖定中的記錄轉換為終止狀態
+   * 轉換的記錄數須與鎖定中的記錄數相同，否則表示已被其他操作轉換
+   * @param orderId 訂單ID
+   * @param target 目標狀態
+   * @return 轉換的鎖定記錄
+   * @throws BusinessException 訂單沒有鎖定中的記錄或已被其他操作轉換時拋出
+   */
+  private List<StockLock> transition(int orderId, StockLockStatus target) {
+    List<StockLock> locks = lockedByOrder.get(orderId);
+    if (locks == null) {
+      // 索引中沒有時（例如其他實例建立的訂單）改由資料表查詢
+      locks = stockLockRepository.findByOrderId(orderId).stream()
+          .filter(lock -> lock.getStatusId() == StockLockStatus.LOCKED.getId())
+          .toList();
+    }
+
+    int updated = stockLockRepository.transitionOrder(orderId, StockLockStatus.LOCKED, target);
+    if (updated == 0 || updated != locks.size()) {
+      throw new BusinessException("訂單庫存已付款、取消或逾期");
+    }
+
+    expiryService.cancel(orderId);
+    afterCommit(() -> lockedByOrder.remove(orderId));
+    return locks;
   }
 
   /**
-   * 系統排程：處理過期的庫存鎖定
-   * 每5分鐘執行一次
+   * 內部方法：釋放已逾期訂單的庫存鎖定並取消未付款訂單
+   * 由逾期排程在鎖定到期時呼叫，只處理仍在鎖定中且已逾期的記錄，重複呼叫不會重複釋放
+   * @param orderIds 訂單ID集合
+   * @return 釋放的鎖定記錄數量
    */
-  @Scheduled(fixedRate = 300000)
   @Transactional
-  public void processExpiredLocks() {
+  public int expireOrders(Collection<Integer> orderIds) {
     Timestamp currentTime = new Timestamp(System.currentTimeMillis());
-    stockLockRepository.invalidateExpiredLocks(currentTime);
+    List<StockLock> locks = stockLockRepository.findExpiredByOrderIds(orderIds, currentTime);
+    return releaseExpired(locks);
+  }
+
+  /**
+   * 內部方法：回收下一批已逾期的庫存鎖定
+   * 查詢、釋放庫存、標記逾期及取消訂單在同一交易中完成，回滾時整批維持原狀
+   * @param afterLockId 上一批最後一筆的鎖定ID，第一批為0
+   * @param currentTime 逾期判斷的時間
+   * @param limit 每批筆數
+   * @return 本批回收的鎖定記錄，依鎖定ID排序，沒有剩餘記錄時為空列表
+   */
+  @Transactional
+  public List<StockLock> reclaimExpired(int afterLockId, Timestamp currentTime, int limit) {
+    List<StockLock> locks = stockLockRepository.findExpiredAfter(afterLockId, currentTime, limit);
+    releaseExpired(locks);
+    return locks;
+  }
+
+  /**
+   * 釋放已逾期鎖定的庫存，同一商品的數量合併後只更新一次
+   * 並將鎖定標記為逾期、取消仍未付款的訂單
+   *
+   * 保留庫存少於逾期數量的商品無法釋放，包含這些商品的訂單整筆維持鎖定中並記錄商品ID，
+   * 由下次回收重試；其餘訂單的釋放必定成功，未成功時整批回滾。
+   * 查詢後有鎖定已被其他交易轉換狀態時整批回滾，由呼叫端重試
+   * @return 釋放的鎖定記錄數量
+   */
+  private int releaseExpired(List<StockLock> locks) {
+    if (locks.isEmpty()) {
+      return 0;
+    }
+
+    Map<Integer, Integer> quantities = sumByProduct(locks);
+    Map<Integer, Integer> lockedStock = stockLedger.getLockedStock(quantities.keySet());
+    Set<Integer> shortProductIds = new TreeSet<>();
+    quantities.forEach((productId, quantity) -> {
+      if (lockedStock.getOrDefault(productId, 0) < quantity) {
+        shortProductIds.add(productId);
+      }
+    });
+
+    if (!shortProductIds.isEmpty()) {
+      Set<Integer> heldOrderIds = new TreeSet<>();
+      for (StockLock lock : locks) {
+        if (shortProductIds.contains(lock.getProductId())) {
+          heldOrderIds.add(lock.getOrderId());
+        }
+      }
+      logger.error("逾期鎖定的保留庫存不足，商品ID {}，訂單 {} 暫不釋放", shortProductIds, heldOrderIds);
+      locks = locks.stream()
+          .filter(lock -> !heldOrderIds.contains(lock.getOrderId()))
+          .toList();
+      if (locks.isEmpty()) {
+        return 0;
+      }
+      quantities = sumByProduct(locks);
+    }
+
+    Set<Integer> lockIds = new HashSet<>();
+    Set<Integer> expiredOrderIds = new LinkedHashSet<>();
+    for (StockLock lock : locks) {
+      lockIds.add(lock.getLockId());
+      expiredOrderIds.add(lock.getOrderId());
+    }
+
+    // 先轉換狀態再釋放庫存：查詢後已被確認或取消的鎖定不會轉換，整批回滾後由重試重新查詢仍鎖定中的記錄，
+    // 避免同一筆鎖定的庫存被釋放兩次
+    int transitioned = stockLockRepository.transitionLocks(lockIds, StockLockStatus.LOCKED, StockLockStatus.EXPIRED);
+    if (transitioned != lockIds.size()) {
+      throw new IllegalStateException("Expected to expire " + lockIds.size() + " stock locks but "
+          + transitioned + " were still locked");
+    }
+    if (!stockLedger.release(quantities)) {
+      throw new IllegalStateException("Failed to release expired stock locks for products " + quantities.keySet());
+    }
+    orderRepository.cancelUnpaid(expiredOrderIds);
+
+    // 提交後自索引移除已逾期的記錄，訂單沒有剩餘的鎖定時整筆移除
+    afterCommit(() -> expiredOrderIds.forEach(orderId -> lockedByOrder.computeIfPresent(orderId,
+        (id, current) -> {
+          List<StockLock> remaining = current.stream()
+              .filter(lock -> !lockIds.contains(lock.getLockId()))
+              .toList();
+          return remaining.isEmpty() ? null : remaining;
+        })));
+    return locks.size();
+  }
+
+  /**
+   * 依商品合併鎖定數量
+   * @param locks 鎖定記錄列表
+   * @return 商品ID與鎖定數量合計的對應
+   */
+  public static Map<Integer, Integer> sumByProduct(Collection<StockLock> locks) {
+    Map<Integer, Integer> quantities = new LinkedHashMap<>();
+    for (StockLock lock : locks) {
+      quantities.merge(lock.getProductId(), lock.getLockedQuantity(), Integer::sum);
+    }
+    return quantities;
   }
 
   /**
@@ -121,6 +305,32 @@ public class StockLockService {
     return stockLockRepository.findExpiredLocks();
   }
 
+  private static Timestamp earliestExpiration(List<StockLock> locks) {
+    Timestamp earliest = locks.get(0).getExpirationTime();
+    for (StockLock lock : locks) {
+      if (lock.getExpirationTime().before(earliest)) {
+        earliest = lock.getExpirationTime();
+      }
+    }
+    return earliest;
+  }
+
+  /**
+   * 在交易中時於提交後執行，否則立即執行
+   */
+  private static void afterCommit(Runnable action) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          action.run();
+        }
+      });
+    } else {
+      action.run();
+    }
+  }
+
   /**
    * 計算鎖定過期時間（預設30分鐘）
    * @return 過期時間戳
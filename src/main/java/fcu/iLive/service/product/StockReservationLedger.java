@@ -0,0 +1,790 @@
+package fcu.iLive.service.product;
+
+import fcu.iLive.model.product.Product;
+import fcu.iLive.repository.product.ProductRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 庫存預留帳本
+ * 所有鎖定、釋放、扣減庫存的操作皆經由此服務進行
+ *
+ * 未啟用時（預設）直接以條件式UPDATE操作資料庫；
+ * 啟用後（stock.ledger.enabled=true）改在記憶體中以分片計數器判斷可用庫存，
+ * 變動量先寫入預寫日誌，再由排程批次合併寫回資料庫，
+ * 讓熱門商品的搶購不再集中在同一筆 Products 資料列上。
+ *
+ * 每個日誌檔在同一個交易中套用變動量並記錄其序號（StockLedgerFlushes），
+ * 寫回後到刪除日誌檔之間程序中斷時，重播會略過已記錄的日誌檔，變動量只套用一次。
+ *
+ * 日誌記錄由呼叫端直接寫入檔案，寫入磁碟（fsync）則由單一同步執行緒分批進行（group commit）：
+ * 呼叫端等待涵蓋其記錄的同一批同步完成後才回報成功，同時進行的操作共用一次 fsync。
+ *
+ * 限制：僅適用單一應用程式實例，多實例部署時各實例的帳本互不可見。
+ */
+@Service
+public class StockReservationLedger {
+
+  private static final Logger logger = LoggerFactory.getLogger(StockReservationLedger.class);
+
+  // 日誌記錄格式：商品ID、實際庫存變動、鎖定庫存變動，各為4 bytes
+  private static final int RECORD_SIZE = 12;
+  private static final String SEGMENT_PREFIX = "ledger-";
+  private static final String SEGMENT_SUFFIX = ".journal";
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
+  @Value("${stock.ledger.enabled:false}")
+  private boolean enabled;
+
+  @Value("${stock.ledger.shards:8}")
+  private int shardCount;
+
+  @Value("${stock.ledger.journal-dir:./data/stock-ledger}")
+  private String journalDir;
+
+  // 商品ID -> 帳本項目，第一次使用時依資料庫庫存建立
+  private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+  // 一般操作取讀鎖，寫回資料庫前切換日誌檔時取寫鎖，確保日誌與待寫回變動量一致
+  private final ReentrantReadWriteLock journalLock = new ReentrantReadWriteLock();
+
+  // 同一時間只允許一個寫回流程
+  private final Object flushMonitor = new Object();
+
+  private volatile FileChannel journal;
+  private Path journalPath;
+  private long journalSegment;
+  private long segmentSequence;
+
+  // 寫回結果不明而保留待下次啟動重播的日誌檔序號，其寫回記錄不可刪除
+  private final NavigableSet<Long> retainedSegments = new ConcurrentSkipListSet<>();
+
+  // 日誌同步：下一批同步完成時完成，呼叫端共用同一批
+  private final Object syncMonitor = new Object();
+  private CompletableFuture<Void> nextSync = new CompletableFuture<>();
+  private boolean syncRequested;
+  private volatile boolean syncRunning;
+  private Thread syncThread;
+
+  /**
+   * 單一商品的帳本項目
+   */
+  private static final class Entry {
+    private final AtomicInteger[] shards;               // 可用庫存分片
+    private final AtomicInteger locked;                 // 鎖定庫存，含尚未寫回的變動
+    private final LongAdder stockDelta = new LongAdder();  // 尚未寫回的實際庫存變動
+    private final LongAdder lockedDelta = new LongAdder(); // 尚未寫回的鎖定庫存變動
+
+    private Entry(int available, int locked, int shardCount) {
+      this.locked = new AtomicInteger(locked);
+      shards = new AtomicInteger[shardCount];
+      for (int i = 0; i < shardCount; i++) {
+        int share = available / shardCount + (i < available % shardCount ? 1 : 0);
+        shards[i] = new AtomicInteger(share);
+      }
+    }
+
+    /**
+     * 從分片中取出指定數量，總量不足時歸還已取出的部分
+     */
+    private boolean tryAcquire(int quantity) {
+      int n = shards.length;
+      int start = ThreadLocalRandom.current().nextInt(n);
+      int[] taken = new int[n];
+      int remaining = quantity;
+
+      for (int i = 0; i < n && remaining > 0; i++) {
+        int index = (start + i) % n;
+        AtomicInteger shard = shards[index];
+        while (true) {
+          int current = shard.get();
+          if (current <= 0) {
+            break;
+          }
+          int take = Math.min(current, remaining);
+          if (shard.compareAndSet(current, current - take)) {
+            taken[index] += take;
+            remaining -= take;
+            break;
+          }
+        }
+      }
+
+      if (remaining == 0) {
+        return true;
+      }
+
+      for (int i = 0; i < n; i++) {
+        if (taken[i] > 0) {
+          shards[i].addAndGet(taken[i]);
+        }
+      }
+      return false;
+    }
+
+    /**
+     * 無條件取出指定數量，分片不足的部分由第一個分片記為負數
+     */
+    private void take(int quantity) {
+      int remaining = quantity;
+      for (AtomicInteger shard : shards) {
+        while (remaining > 0) {
+          int current = shard.get();
+          if (current <= 0) {
+            break;
+          }
+          int take = Math.min(current, remaining);
+          if (shard.compareAndSet(current, current - take)) {
+            remaining -= take;
+          }
+        }
+      }
+      if (remaining > 0) {
+        shards[0].addAndGet(-remaining);
+      }
+    }
+
+    /**
+     * 減少鎖定庫存，不足時不減少，與資料庫的 LockedStock >= ? 條件一致
+     */
+    private boolean tryUnlock(int quantity) {
+      while (true) {
+        int current = locked.get();
+        if (current < quantity) {
+          return false;
+        }
+        if (locked.compareAndSet(current, current - quantity)) {
+          return true;
+        }
+      }
+    }
+
+    private void give(int quantity) {
+      shards[ThreadLocalRandom.current().nextInt(shards.length)].addAndGet(quantity);
+    }
+
+    private int available() {
+      int sum = 0;
+      for (AtomicInteger shard : shards) {
+        sum += shard.get();
+      }
+      return sum;
+    }
+  }
+
+  /**
+   * 啟動時重播上次未寫回的日誌，並開啟新的日誌檔
+   */
+  @PostConstruct
+  public void init() throws IOException {
+    if (!enabled) {
+      return;
+    }
+    if (shardCount <= 0) {
+      throw new IllegalStateException("stock.ledger.shards 必須大於0");
+    }
+
+    Path dir = Paths.get(journalDir);
+    Files.createDirectories(dir);
+
+    productRepository.createLedgerFlushTableIfNotExists();
+    segmentSequence = productRepository.findLastLedgerSegment() + 1;
+
+    // 依序號重播上次未寫回的日誌檔，已記錄寫回的日誌檔直接刪除
+    Map<Long, Path> segments = listSegments(dir);
+    int replayed = 0;
+    for (Map.Entry<Long, Path> segment : segments.entrySet()) {
+      long segmentId = segment.getKey();
+      segmentSequence = Math.max(segmentSequence, segmentId + 1);
+      if (!productRepository.isLedgerSegmentApplied(segmentId)) {
+        Map<Integer, long[]> deltas = new HashMap<>();
+        readSegment(segment.getValue(), deltas);
+        applySegment(segmentId, toDeltaRows(deltas));
+        replayed++;
+      }
+      Files.delete(segment.getValue());
+    }
+    if (!segments.isEmpty()) {
+      logger.info("已檢查 {} 個日誌檔，重播其中 {} 個", segments.size(), replayed);
+    }
+
+    journal = openSegment();
+    syncRunning = true;
+    syncThread = new Thread(this::syncLoop, "stock-ledger-sync");
+    syncThread.setDaemon(true);
+    syncThread.start();
+    logger.info("庫存預留帳本已啟用，分片數：{}", shardCount);
+  }
+
+  /**
+   * 關閉時將剩餘變動寫回資料庫
+   */
+  @PreDestroy
+  public void shutdown() throws IOException {
+    if (!enabled) {
+      return;
+    }
+    flush();
+
+    synchronized (syncMonitor) {
+      syncRunning = false;
+      syncMonitor.notifyAll();
+    }
+    try {
+      syncThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    journal.force(false);
+    journal.close();
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * 鎖定多個商品庫存，全部成功或全部不鎖定
+   * @param quantities 商品ID與鎖定數量的對應，數量須大於0
+   * @return 是否全部鎖定成功
+   */
+  public boolean reserve(Map<Integer, Integer> quantities) {
+    if (!enabled) {
+      return productRepository.reserveStock(quantities);
+    }
+
+    Map<Integer, Integer> reserved = new LinkedHashMap<>();
+    boolean success = true;
+    for (Map.Entry<Integer, Integer> item : quantities.entrySet()) {
+      if (!reserveEntry(item.getKey(), item.getValue())) {
+        reserved.forEach(this::releaseEntry);
+        success = false;
+        break;
+      }
+      reserved.put(item.getKey(), item.getValue());
+    }
+    if (!reserved.isEmpty()) {
+      awaitDurable();
+    }
+    return success;
+  }
+
+  /**
+   * 鎖定商品庫存
+   * @param productId 商品ID
+   * @param quantity 鎖定數量
+   * @return 是否鎖定成功
+   */
+  public boolean reserve(int productId, int quantity) {
+    if (!enabled) {
+      return productRepository.reserveStock(productId, quantity);
+    }
+    return durable(reserveEntry(productId, quantity));
+  }
+
+  /**
+   * 釋放商品的鎖定庫存，鎖定庫存不足時不釋放
+   * @param productId 商品ID
+   * @param quantity 釋放數量
+   * @return 是否釋放成功
+   */
+  public boolean release(int productId, int quantity) {
+    if (!enabled) {
+      return productRepository.releaseLockedStock(productId, quantity);
+    }
+    return durable(releaseEntry(productId, quantity));
+  }
+
+  /**
+   * 扣減商品的實際庫存與鎖定庫存
+   * 可用庫存不變，啟用帳本時只記錄待寫回的變動量；鎖定庫存不足時不扣減
+   * @param productId 商品ID
+   * @param quantity 扣減數量
+   * @return 是否扣減成功
+   */
+  public boolean deduct(int productId, int quantity) {
+    if (!enabled) {
+      return productRepository.deductStock(productId, quantity);
+    }
+    return durable(deductEntry(productId, quantity));
+  }
+
+  /**
+   * 釋放多個商品的鎖定庫存
+   * 未啟用帳本時以單一UPDATE完成；須在交易中呼叫，回傳false時應回滾交易
+   * @param quantities 商品ID與釋放數量的對應，數量須大於0
+   * @return 是否全部釋放成功
+   */
+  public boolean release(Map<Integer, Integer> quantities) {
+    if (!enabled) {
+      return productRepository.releaseLockedStock(quantities);
+    }
+
+    boolean released = true;
+    for (Map.Entry<Integer, Integer> item : quantities.entrySet()) {
+      released &= releaseEntry(item.getKey(), item.getValue());
+    }
+    if (!quantities.isEmpty()) {
+      awaitDurable();
+    }
+    return released;
+  }
+
+  /**
+   * 扣減多個商品的實際庫存與鎖定庫存
+   * 未啟用帳本時以單一UPDATE完成；須在交易中呼叫，回傳false時應回滾交易
+   * @param quantities 商品ID與扣減數量的對應，數量須大於0
+   * @return 是否全部扣減成功
+   */
+  public boolean deduct(Map<Integer, Integer> quantities) {
+    if (!enabled) {
+      return productRepository.deductStock(quantities);
+    }
+
+    boolean deducted = true;
+    for (Map.Entry<Integer, Integer> item : quantities.entrySet()) {
+      deducted &= deductEntry(item.getKey(), item.getValue());
+    }
+    if (!quantities.isEmpty()) {
+      awaitDurable();
+    }
+    return deducted;
+  }
+
+  private boolean reserveEntry(int productId, int quantity) {
+    Entry entry = entryOf(productId);
+    if (entry == null || !entry.tryAcquire(quantity)) {
+      return false;
+    }
+    entry.locked.addAndGet(quantity);
+    record(productId, entry, 0, quantity);
+    return true;
+  }
+
+  private boolean releaseEntry(int productId, int quantity) {
+    Entry entry = entryOf(productId);
+    if (entry == null || !entry.tryUnlock(quantity)) {
+      return false;
+    }
+    entry.give(quantity);
+    record(productId, entry, 0, -quantity);
+    return true;
+  }
+
+  private boolean deductEntry(int productId, int quantity) {
+    Entry entry = entryOf(productId);
+    if (entry == null || !entry.tryUnlock(quantity)) {
+      return false;
+    }
+    record(productId, entry, -quantity, -quantity);
+    return true;
+  }
+
+  /**
+   * 操作成功時等待日誌寫入磁碟
+   */
+  private boolean durable(boolean success) {
+    if (success) {
+      awaitDurable();
+    }
+    return success;
+  }
+
+  /**
+   * 查詢多個商品目前的保留庫存
+   * 未啟用帳本時以 SELECT ... FOR UPDATE 查詢，須在交易中呼叫，
+   * 交易結束前這些商品的保留庫存不會被其他交易改變
+   * @param productIds 商品ID集合
+   * @return 商品ID與保留庫存的對應，不存在的商品不包含在內
+   */
+  public Map<Integer, Integer> getLockedStock(Collection<Integer> productIds) {
+    if (!enabled) {
+      return productRepository.findLockedStockForUpdate(productIds);
+    }
+
+    Map<Integer, Integer> lockedStock = new HashMap<>();
+    for (Integer productId : productIds) {
+      Entry entry = entryOf(productId);
+      if (entry != null) {
+        lockedStock.put(productId, entry.locked.get());
+      }
+    }
+    return lockedStock;
+  }
+
+  /**
+   * 管理員直接修改實際庫存後，同步調整帳本中的可用庫存
+   * @param productId 商品ID
+   * @param stockChange 實際庫存的變動量
+   */
+  public void adjustStock(int productId, int stockChange) {
+    Entry entry = enabled ? entries.get(productId) : null;
+    if (entry == null || stockChange == 0) {
+      return;
+    }
+    if (stockChange > 0) {
+      entry.give(stockChange);
+    } else {
+      entry.take(-stockChange);
+    }
+  }
+
+  /**
+   * 商品刪除後移除帳本項目
+   * @param productId 商品ID
+   */
+  public void remove(int productId) {
+    if (enabled) {
+      entries.remove(productId);
+    }
+  }
+
+  /**
+   * 查詢帳本中的可用庫存
+   * @param productId 商品ID
+   * @return 可用庫存，帳本未追蹤此商品時返回null
+   */
+  public Integer getAvailable(int productId) {
+    Entry entry = enabled ? entries.get(productId) : null;
+    return entry != null ? entry.available() : null;
+  }
+
+  /**
+   * 查詢帳本中的鎖定庫存
+   * @param productId 商品ID
+   * @return 鎖定庫存，帳本未追蹤此商品時返回null
+   */
+  public Integer getLocked(int productId) {
+    Entry entry = enabled ? entries.get(productId) : null;
+    return entry != null ? entry.locked.get() : null;
+  }
+
+  /**
+   * 排程：將累積的變動量批次寫回資料庫
+   */
+  @Scheduled(fixedDelayString = "${stock.ledger.flush-interval-ms:200}")
+  public void flush() {
+    if (!enabled) {
+      return;
+    }
+
+    synchronized (flushMonitor) {
+      FileChannel previous;
+      Path previousPath;
+      long previousSegment;
+      List<int[]> rows = new ArrayList<>();
+
+      // 1. 切換日誌檔並取出目前的變動量快照
+      journalLock.writeLock().lock();
+      try {
+        previous = journal;
+        previousPath = journalPath;
+        previousSegment = journalSegment;
+        // 同步執行緒只同步目前的日誌檔，切換前先將舊日誌檔寫入磁碟
+        previous.force(false);
+        journal = openSegment();
+        entries.forEach((productId, entry) -> {
+          long stockDelta = entry.stockDelta.sumThenReset();
+          long lockedDelta = entry.lockedDelta.sumThenReset();
+          if (stockDelta != 0 || lockedDelta != 0) {
+            rows.add(new int[]{productId, (int) stockDelta, (int) lockedDelta});
+          }
+        });
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        journalLock.writeLock().unlock();
+      }
+
+      // 2. 在同一個交易中寫回變動量並記錄日誌檔序號
+      Boolean applied;
+      if (rows.isEmpty()) {
+        applied = true;
+      } else {
+        try {
+          applySegment(previousSegment, rows);
+          applied = true;
+        } catch (RuntimeException e) {
+          logger.error("庫存變動寫回失敗，日誌檔序號：{}", previousSegment, e);
+          applied = checkApplied(previousSegment);
+        }
+      }
+
+      // 3. 確定未寫回時將變動量轉移到新日誌檔等待下次寫回；
+      //    無法確定時保留舊日誌檔，由下次啟動依寫回記錄決定是否重播
+      if (Boolean.FALSE.equals(applied)) {
+        for (int[] row : rows) {
+          Entry entry = entries.get(row[0]);
+          if (entry != null) {
+            record(row[0], entry, row[1], row[2]);
+          }
+        }
+        awaitDurable();
+      } else if (applied == null) {
+        retainedSegments.add(previousSegment);
+        logger.error("無法確認日誌檔 {} 是否已寫回，保留至下次啟動重播", previousPath);
+      }
+
+      try {
+        previous.close();
+        if (applied != null) {
+          Files.deleteIfExists(previousPath);
+        }
+      } catch (IOException e) {
+        retainedSegments.add(previousSegment);
+        logger.error("刪除庫存日誌檔失敗", e);
+      }
+    }
+  }
+
+  /**
+   * 在交易中套用日誌檔的變動量並記錄寫回
+   * 序號小於仍保留在磁碟上的日誌檔的寫回記錄已不需要，一併刪除
+   */
+  private void applySegment(long segmentId, List<int[]> rows) {
+    Long oldestRetained = retainedSegments.isEmpty() ? null : retainedSegments.first();
+    long pruneBefore = oldestRetained != null ? Math.min(oldestRetained, segmentId) : segmentId;
+    transactionTemplate.executeWithoutResult(status ->
+        productRepository.applyStockDeltas(segmentId, rows, pruneBefore));
+  }
+
+  /**
+   * 寫回失敗後確認交易是否其實已提交
+   * @return 是否已寫回，無法確認時返回null
+   */
+  private Boolean checkApplied(long segmentId) {
+    try {
+      return productRepository.isLedgerSegmentApplied(segmentId);
+    } catch (RuntimeException e) {
+      logger.error("查詢日誌檔寫回記錄失敗，日誌檔序號：{}", segmentId, e);
+      return null;
+    }
+  }
+
+  /**
+   * 取得或建立帳本項目，建立時以資料庫的可用庫存作為初始值
+   * 資料庫查詢不在 computeIfAbsent 內進行，避免查詢期間阻擋同一個雜湊桶的其他商品；
+   * 同時建立時以先放入的項目為準
+   */
+  private Entry entryOf(int productId) {
+    Entry entry = entries.get(productId);
+    if (entry != null) {
+      return entry;
+    }
+    Product product = productRepository.findById(productId, ProductRepository.Projection.STOCK);
+    if (product == null) {
+      return null;
+    }
+    Entry created = new Entry(Math.max(product.getAvailableStock(), 0),
+        Math.max(product.getLockedStock(), 0), shardCount);
+    Entry existing = entries.putIfAbsent(productId, created);
+    return existing != null ? existing : created;
+  }
+
+  /**
+   * 寫入日誌並累加待寫回的變動量，寫入磁碟由呼叫端以 awaitDurable 等待
+   * 在交易中呼叫時，交易回滾會自動寫入相反的變動
+   */
+  private void record(int productId, Entry entry, int stockDelta, int lockedDelta) {
+    journalLock.readLock().lock();
+    try {
+      appendJournal(productId, stockDelta, lockedDelta);
+      entry.stockDelta.add(stockDelta);
+      entry.lockedDelta.add(lockedDelta);
+    } finally {
+      journalLock.readLock().unlock();
+    }
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          if (status != STATUS_COMMITTED) {
+            undo(productId, entry, stockDelta, lockedDelta);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * 交易回滾時還原記憶體中的可用庫存並寫入相反的變動
+   */
+  private void undo(int productId, Entry entry, int stockDelta, int lockedDelta) {
+    entry.locked.addAndGet(-lockedDelta);
+    int availableChange = stockDelta - lockedDelta;
+    if (availableChange > 0) {
+      entry.take(availableChange);
+    } else if (availableChange < 0) {
+      entry.give(-availableChange);
+    }
+
+    journalLock.readLock().lock();
+    try {
+      appendJournal(productId, -stockDelta, -lockedDelta);
+      entry.stockDelta.add(-stockDelta);
+      entry.lockedDelta.add(-lockedDelta);
+    } finally {
+      journalLock.readLock().unlock();
+    }
+    awaitDurable();
+  }
+
+  /**
+   * 等待目前為止寫入的日誌記錄都已寫入磁碟
+   * 取得的是尚未開始的下一批同步，該批同步開始時本執行緒的記錄必定已寫入檔案
+   */
+  private void awaitDurable() {
+    CompletableFuture<Void> batch;
+    synchronized (syncMonitor) {
+      batch = nextSync;
+      syncRequested = true;
+      syncMonitor.notifyAll();
+    }
+    try {
+      batch.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw new UncheckedIOException("庫存日誌寫入磁碟失敗", (IOException) e.getCause());
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * 同步執行緒：每次取出目前累積的所有等待者，以一次 fsync 完成整批
+   * 同步時持有讀鎖，期間不會切換日誌檔；切換前的日誌檔已在切換時寫入磁碟
+   */
+  private void syncLoop() {
+    while (true) {
+      CompletableFuture<Void> batch;
+      synchronized (syncMonitor) {
+        while (!syncRequested) {
+          if (!syncRunning) {
+            return;
+          }
+          try {
+            syncMonitor.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+        batch = nextSync;
+        nextSync = new CompletableFuture<>();
+        syncRequested = false;
+      }
+
+      journalLock.readLock().lock();
+      try {
+        journal.force(false);
+        batch.complete(null);
+      } catch (IOException e) {
+        logger.error("庫存日誌寫入磁碟失敗", e);
+        batch.completeExceptionally(e);
+      } finally {
+        journalLock.readLock().unlock();
+      }
+    }
+  }
+
+  private void appendJournal(int productId, int stockDelta, int lockedDelta) {
+    ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+    buffer.putInt(productId).putInt(stockDelta).putInt(lockedDelta).flip();
+    try {
+      while (buffer.hasRemaining()) {
+        journal.write(buffer);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("寫入庫存日誌失敗", e);
+    }
+  }
+
+  private FileChannel openSegment() throws IOException {
+    journalSegment = segmentSequence++;
+    journalPath = Paths.get(journalDir, SEGMENT_PREFIX + journalSegment + SEGMENT_SUFFIX);
+    return FileChannel.open(journalPath,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  /**
+   * 列出日誌檔，依序號排序
+   */
+  private Map<Long, Path> listSegments(Path dir) throws IOException {
+    Map<Long, Path> segments = new TreeMap<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path segment : stream) {
+        String name = segment.getFileName().toString();
+        String sequence = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+        try {
+          segments.put(Long.parseLong(sequence), segment);
+        } catch (NumberFormatException e) {
+          logger.warn("略過無法辨識的日誌檔：{}", segment);
+        }
+      }
+    }
+    return segments;
+  }
+
+  /**
+   * 讀取日誌檔並依商品累加變動量，忽略程序中斷時寫到一半的記錄
+   */
+  private void readSegment(Path segment, Map<Integer, long[]> deltas) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+    while (buffer.remaining() >= RECORD_SIZE) {
+      long[] delta = deltas.computeIfAbsent(buffer.getInt(), id -> new long[2]);
+      delta[0] += buffer.getInt();
+      delta[1] += buffer.getInt();
+    }
+  }
+
+  private List<int[]> toDeltaRows(Map<Integer, long[]> deltas) {
+    List<int[]> rows = new ArrayList<>();
+    deltas.forEach((productId, delta) -> {
+      if (delta[0] != 0 || delta[1] != 0) {
+        rows.add(new int[]{productId, (int) delta[0], (int) delta[1]});
+      }
+    });
+    return rows;
+  }
+}
@@ -0,0 +1,179 @@
+package fcu.iLive.service.user;
+
+import fcu.iLive.exception.JwtException;
+import fcu.iLive.model.jwt.RefreshToken;
+import fcu.iLive.model.jwt.TokenPair;
+import fcu.iLive.model.jwt.VerifiedToken;
+import fcu.iLive.repository.user.RefreshTokenRepository;
+import fcu.iLive.util.JwtUtil;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 刷新令牌家族管理
+ * 登入時建立令牌家族，每次刷新都發出新的刷新令牌並使舊令牌失效（輪替）。
+ * 已輪替的令牌再次被使用時視為外洩，撤銷整個家族，該家族的存取令牌也一併失效。
+ *
+ * 令牌狀態保存在記憶體索引中，並寫入 RefreshTokens 資料表，啟動時重新載入；
+ * 驗證過濾器只查詢記憶體中的撤銷索引，不會在每個請求查詢資料庫。
+ */
+@Service
+public class RefreshTokenStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(RefreshTokenStore.class);
+
+  @Autowired
+  private JwtUtil jwtUtil;
+
+  @Autowired
+  private RefreshTokenRepository refreshTokenRepository;
+
+  @Value("${jwt.refresh.sweep-batch-size:500}")
+  private int sweepBatchSize;
+
+  // 令牌ID -> 令牌狀態
+  private final Map<String, Entry> tokens = new ConcurrentHashMap<>();
+
+  // 已撤銷的家族ID -> 可從索引移除的時間（毫秒）
+  private final Map<String, Long> revokedFamilies = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  public void load() {
+    List<RefreshToken> unexpired = refreshTokenRepository.findUnexpired(new Timestamp(System.currentTimeMillis()));
+    for (RefreshToken token : unexpired) {
+      long expiresAt = token.getExpiresAt().getTime();
+      tokens.put(token.getTokenId(), new Entry(expiresAt, token.isUsed()));
+      if (token.isRevoked()) {
+        revokedFamilies.merge(token.getFamilyId(), expiresAt, Math::max);
+      }
+    }
+    logger.info("Loaded {} refresh tokens, {} revoked families", tokens.size(), revokedFamilies.size());
+  }
+
+  /**
+   * 登入時建立新的令牌家族
+   * @param userId 用戶ID
+   * @return 存取令牌與刷新令牌
+   */
+  public TokenPair issue(int userId) {
+    return issueTokens(userId, UUID.randomUUID().toString());
+  }
+
+  /**
+   * 輪替刷新令牌
+   * @param refreshToken 已驗證簽章的刷新令牌
+   * @return 同一家族的新存取令牌與刷新令牌
+   * @throws JwtException 令牌不屬於任何家族、家族已撤銷或令牌已被使用時拋出
+   */
+  public TokenPair rotate(VerifiedToken refreshToken) {
+    String tokenId = refreshToken.getTokenId();
+    String familyId = refreshToken.getFamilyId();
+    if (tokenId == null || familyId == null) {
+      throw new JwtException("無效的刷新令牌");
+    }
+    if (isRevoked(familyId)) {
+      throw new JwtException("刷新令牌已撤銷，請重新登入");
+    }
+
+    Entry entry = tokens.get(tokenId);
+    if (entry == null) {
+      throw new JwtException("無效的刷新令牌");
+    }
+
+    // 已輪替過的令牌再次出現，視為遭竊用，撤銷整個家族
+    // 以資料庫的條件更新判定是否首次使用，成功後才同步記憶體中的狀態；
+    // 資料庫失敗時記憶體狀態不變，令牌仍可重試而不會被誤判為重複使用
+    if (entry.used.get() || !refreshTokenRepository.markUsed(tokenId)) {
+      entry.used.set(true);
+      logger.warn("Refresh token reuse detected, revoking family {} of user {}",
+          familyId, refreshToken.getUserId());
+      revokeFamily(familyId);
+      throw new JwtException("刷新令牌已被使用，請重新登入");
+    }
+    entry.used.set(true);
+
+    return issueTokens(refreshToken.getUserId(), familyId);
+  }
+
+  /**
+   * 檢查令牌家族是否已撤銷
+   * @param familyId 令牌家族ID
+   * @return 是否已撤銷
+   */
+  public boolean isRevoked(String familyId) {
+    return revokedFamilies.containsKey(familyId);
+  }
+
+  /**
+   * 撤銷令牌家族，家族內的刷新令牌與存取令牌立即失效
+   * @param familyId 令牌家族ID
+   */
+  public void revokeFamily(String familyId) {
+    // 家族內最晚的令牌不會晚於目前時間加上刷新令牌時效
+    long removableAt = System.currentTimeMillis() + jwtUtil.getRefreshTokenExpiration() * 1000;
+    revokedFamilies.merge(familyId, removableAt, Math::max);
+    refreshTokenRepository.revokeFamily(familyId);
+  }
+
+  /**
+   * 定期清除過期的令牌記錄
+   * 資料表分批刪除，避免單一大型DELETE長時間鎖表
+   */
+  @Scheduled(fixedDelayString = "${jwt.refresh.sweep-interval-ms:600000}")
+  public void sweepExpired() {
+    long now = System.currentTimeMillis();
+    tokens.values().removeIf(entry -> entry.expiresAt <= now);
+    revokedFamilies.values().removeIf(removableAt -> removableAt <= now);
+
+    try {
+      Timestamp cutoff = new Timestamp(now);
+      int total = 0;
+      int deleted;
+      do {
+        deleted = refreshTokenRepository.deleteExpired(cutoff, sweepBatchSize);
+        total += deleted;
+      } while (deleted == sweepBatchSize);
+
+      if (total > 0) {
+        logger.info("Removed {} expired refresh tokens", total);
+      }
+    } catch (Exception e) {
+      logger.error("Failed to remove expired refresh tokens", e);
+    }
+  }
+
+  private TokenPair issueTokens(int userId, String familyId) {
+    String tokenId = UUID.randomUUID().toString();
+    long expiresAt = System.currentTimeMillis() + jwtUtil.getRefreshTokenExpiration() * 1000;
+
+    refreshTokenRepository.insert(
+        new RefreshToken(tokenId, familyId, userId, new Timestamp(expiresAt), false, false));
+    tokens.put(tokenId, new Entry(expiresAt, false));
+
+    return new TokenPair(
+        jwtUtil.generateAccessToken(userId, familyId),
+        jwtUtil.generateRefreshToken(userId, familyId, tokenId));
+  }
+
+  private static final class Entry {
+    private final long expiresAt;
+    private final AtomicBoolean used;
+
+    private Entry(long expiresAt, boolean used) {
+      this.expiresAt = expiresAt;
+      this.used = new AtomicBoolean(used);
+    }
+  }
+}
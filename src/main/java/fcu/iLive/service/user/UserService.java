@@ -1,16 +1,24 @@
 package fcu.iLive.service.user;
 
+import fcu.iLive.model.jwt.TokenPair;
+import fcu.iLive.model.jwt.VerifiedToken;
 import fcu.iLive.model.user.User;
 import fcu.iLive.repository.user.UserRepository;
 import fcu.iLive.util.JwtUtil;
+import fcu.iLive.util.PasswordHasher;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 @Service
 public class UserService {
@@ -21,69 +29,123 @@ public class UserService {
   private UserRepository userRepository;
 
   @Autowired
-  private BCryptPasswordEncoder passwordEncoder;
+  private PasswordHasher passwordHasher;
 
   @Autowired
   private JwtUtil jwtUtil;
 
-  public User register(User user) {
+  @Autowired
+  private RefreshTokenStore refreshTokenStore;
+
+  // 雜湊完成後的資料庫作業在此執行，不佔用雜湊執行緒
+  @Autowired
+  @Qualifier("accountExecutor")
+  private Executor accountExecutor;
+
+  /**
+   * 註冊新用戶
+   * 密碼雜湊在雜湊執行緒池執行，完成後在帳號作業執行緒池寫入資料庫
+   * @throws fcu.iLive.exception.ServiceUnavailableException 雜湊佇列已滿時拋出
+   */
+  public CompletableFuture<User> register(User user) {
     logger.info("Registering new user: {}", user.getUsername());
     validateUserData(user);
 
-    if (userRepository.findByUsername(user.getUsername()) != null) {
-      logger.warn("Username already exists: {}", user.getUsername());
-      throw new RuntimeException("用戶名已存在");
-    }
-
-    if (userRepository.findByEmail(user.getEmail()) != null) {
-      logger.warn("Email already exists: {}", user.getEmail());
-      throw new RuntimeException("電子郵件已存在");
-    }
-
-    if (userRepository.findByPhoneNumber(user.getPhoneNumber()) != null) {
-      logger.warn("Phone number already exists: {}", user.getPhoneNumber());
-      throw new RuntimeException("手機號碼已存在");
+    // 一次查詢檢查三個欄位，依用戶名、電子郵件、手機號碼的順序回報
+    List<User> conflicts = userRepository.findConflicts(
+        user.getUsername(), user.getEmail(), user.getPhoneNumber());
+    if (!conflicts.isEmpty()) {
+      throw duplicateField(user, conflicts);
     }
 
-    String hashedPassword = passwordEncoder.encode(user.getPassword());
-    user.setPasswordHash(hashedPassword);
-
-    User registeredUser = userRepository.save(user);
-    logger.info("User registered successfully: {}", user.getUsername());
-    return registeredUser;
+    return passwordHasher.encode(user.getPassword()).thenApplyAsync(hashedPassword -> {
+      user.setPasswordHash(hashedPassword);
+      User registeredUser;
+      try {
+        registeredUser = userRepository.save(user);
+      } catch (DuplicateKeyException e) {
+        // 檢查後到寫入前有其他請求註冊了相同資料
+        throw duplicateField(e);
+      }
+      logger.info("User registered successfully: {}", user.getUsername());
+      return registeredUser;
+    }, accountExecutor);
   }
 
-  public Map<String, Object> login(String username, String password) {
+  /**
+   * 用戶登入
+   * 用戶查詢在目前執行緒完成，密碼比對在雜湊執行緒池執行，發出令牌在帳號作業執行緒池執行；
+   * 儲存的雜湊成本與目前設定不同時，登入成功後以新成本重新雜湊
+   * @throws fcu.iLive.exception.ServiceUnavailableException 雜湊佇列已滿時拋出
+   */
+  public CompletableFuture<Map<String, Object>> login(String username, String password) {
     logger.info("Login attempt for user: {}", username);
     User user = userRepository.findByUsername(username);
 
-    if (user == null || !passwordEncoder.matches(password, user.getPasswordHash())) {
+    if (user == null) {
       logger.warn("Login failed for user: {}", username);
-      throw new RuntimeException("用戶名或密碼錯誤");
+      return CompletableFuture.failedFuture(new RuntimeException("用戶名或密碼錯誤"));
     }
 
-    String accessToken = jwtUtil.generateAccessToken(user.getUserId());
-    String refreshToken = jwtUtil.generateRefreshToken(user.getUserId());
+    return passwordHasher.matches(password, user.getPasswordHash())
+        .thenApplyAsync(matched -> {
+          if (!matched) {
+            logger.warn("Login failed for user: {}", username);
+            throw new RuntimeException("用戶名或密碼錯誤");
+          }
+          rehashIfNeeded(user, password);
+          return createLoginResponse(user);
+        }, accountExecutor);
+  }
+
+  private Map<String, Object> createLoginResponse(User user) {
+    TokenPair tokens = refreshTokenStore.issue(user.getUserId());
 
     Map<String, Object> response = new HashMap<>();
-    response.put("accessToken", accessToken);
-    response.put("refreshToken", refreshToken);
+    response.put("accessToken", tokens.getAccessToken());
+    response.put("refreshToken", tokens.getRefreshToken());
     response.put("user", sanitizeUser(user));
     response.put("status", "success");
     response.put("message", "登入成功");
 
-    logger.info("User logged in successfully: {}", username);
+    logger.info("User logged in successfully: {}", user.getUsername());
     return response;
   }
 
+  /**
+   * 重新雜湊舊成本的密碼，失敗不影響登入
+   */
+  private void rehashIfNeeded(User user, String password) {
+    if (!passwordHasher.needsRehash(user.getPasswordHash())) {
+      return;
+    }
+    try {
+      passwordHasher.encode(password)
+          .thenAcceptAsync(hash -> userRepository.updatePasswordHash(user.getUserId(), hash), accountExecutor)
+          .whenComplete((ignored, e) -> {
+            if (e != null) {
+              logger.warn("Failed to rehash password for user: {}", user.getUserId(), e);
+            } else {
+              logger.info("Password rehashed with cost {} for user: {}",
+                  passwordHasher.getStrength(), user.getUserId());
+            }
+          });
+    } catch (Exception e) {
+      // 佇列已滿時略過，下次登入再處理
+      logger.info("Skip password rehash for user {}: {}", user.getUserId(), e.getMessage());
+    }
+  }
+
   public Map<String, String> refreshToken(String refreshToken) {
     logger.info("Attempting to refresh token");
-    if (!jwtUtil.validateRefreshToken(refreshToken)) {
+    VerifiedToken verified;
+    try {
+      verified = jwtUtil.verifyToken(refreshToken);
+    } catch (Exception e) {
       logger.warn("Invalid refresh token");
       throw new RuntimeException("無效的刷新令牌");
     }
-
-    int userId = jwtUtil.getUserIdFromToken(refreshToken);
+    int userId = verified.getUserId();
     User user = getUserById(userId);
 
     if (user == null) {
@@ -91,18 +153,39 @@ public class UserService {
       throw new RuntimeException("用戶不存在");
     }
 
-    String newAccessToken = jwtUtil.generateAccessToken(userId);
-    String newRefreshToken = jwtUtil.generateRefreshToken(userId);
+    // 輪替刷新令牌，舊令牌之後不能再使用
+    TokenPair newTokens = refreshTokenStore.rotate(verified);
 
     Map<String, String> tokens = new HashMap<>();
-    tokens.put("accessToken", newAccessToken);
-    tokens.put("refreshToken", newRefreshToken);
+    tokens.put("accessToken", newTokens.getAccessToken());
+    tokens.put("refreshToken", newTokens.getRefreshToken());
     tokens.put("status", "success");
 
     logger.info("Token refreshed successfully for user: {}", userId);
     return tokens;
   }
 
+  /**
+   * 登出，撤銷令牌所屬的令牌家族
+   * 同一次登入取得的刷新令牌與存取令牌都會立即失效
+   * @param token 刷新令牌或存取令牌
+   */
+  public void logout(String token) {
+    if (token == null) {
+      return;
+    }
+    try {
+      String familyId = jwtUtil.verifyToken(token).getFamilyId();
+      if (familyId != null) {
+        refreshTokenStore.revokeFamily(familyId);
+        logger.info("Token family revoked on logout");
+      }
+    } catch (Exception e) {
+      // 已過期或無效的令牌不需撤銷
+      logger.info("Logout with invalid or expired token: {}", e.getMessage());
+    }
+  }
+
   public User updateUser(int userId, User updatedUser) {
     logger.info("Updating user info for ID: {}", userId);
     User user = userRepository.findById(userId);
@@ -138,23 +221,80 @@ public class UserService {
     return sanitizeUser(user);
   }
 
-  public void changePassword(int userId, String oldPassword, String newPassword) {
+  /**
+   * 修改密碼
+   * 用戶查詢在目前執行緒完成，兩次密碼比對與新密碼雜湊在雜湊執行緒池執行，
+   * 寫入新雜湊在帳號作業執行緒池執行
+   * @throws fcu.iLive.exception.ServiceUnavailableException 雜湊佇列已滿時拋出
+   */
+  public CompletableFuture<Void> changePassword(int userId, String oldPassword, String newPassword) {
     logger.info("Changing password for user ID: {}", userId);
-    User user = getUserById(userId);
-
-    if (!passwordEncoder.matches(oldPassword, user.getPasswordHash())) {
-      logger.warn("Old password incorrect for user: {}", userId);
-      throw new RuntimeException("舊密碼錯誤");
+    User user = userRepository.findById(userId, UserRepository.Projection.AUTH);
+    if (user == null) {
+      logger.warn("User not found: {}", userId);
+      return CompletableFuture.failedFuture(new RuntimeException("找不到用戶"));
     }
 
-    if (passwordEncoder.matches(newPassword, user.getPasswordHash())) {
-      logger.warn("New password same as old password for user: {}", userId);
-      throw new RuntimeException("新密碼不能與舊密碼相同");
+    return passwordHasher.matches(oldPassword, user.getPasswordHash())
+        .thenCompose(matched -> {
+          if (!matched) {
+            logger.warn("Old password incorrect for user: {}", userId);
+            throw new RuntimeException("舊密碼錯誤");
+          }
+          return passwordHasher.matches(newPassword, user.getPasswordHash());
+        })
+        .thenCompose(same -> {
+          if (same) {
+            logger.warn("New password same as old password for user: {}", userId);
+            throw new RuntimeException("新密碼不能與舊密碼相同");
+          }
+          return passwordHasher.encode(newPassword);
+        })
+        .thenAcceptAsync(hash -> {
+          userRepository.updatePasswordHash(userId, hash);
+          logger.info("Password changed successfully for user: {}", userId);
+        }, accountExecutor);
+  }
+
+  /**
+   * 依衝突記錄判斷重複的欄位
+   * 資料庫欄位的定序不分大小寫，比對方式須與 findConflicts 的查詢一致
+   */
+  private RuntimeException duplicateField(User user, List<User> conflicts) {
+    if (conflicts.stream().anyMatch(c -> user.getUsername().equalsIgnoreCase(c.getUsername()))) {
+      logger.warn("Username already exists: {}", user.getUsername());
+      return new RuntimeException("用戶名已存在");
     }
+    if (conflicts.stream().anyMatch(c -> user.getEmail().equalsIgnoreCase(c.getEmail()))) {
+      logger.warn("Email already exists: {}", user.getEmail());
+      return new RuntimeException("電子郵件已存在");
+    }
+    logger.warn("Phone number already exists: {}", user.getPhoneNumber());
+    return new RuntimeException("手機號碼已存在");
+  }
 
-    user.setPasswordHash(passwordEncoder.encode(newPassword));
-    userRepository.update(user);
-    logger.info("Password changed successfully for user: {}", userId);
+  /**
+   * 依違反的唯一限制名稱對應錯誤訊息
+   * MariaDB 的訊息格式為 Duplicate entry '...' for key '欄位或索引名稱'
+   */
+  private RuntimeException duplicateField(DuplicateKeyException e) {
+    String message = e.getMostSpecificCause().getMessage();
+    String key = message != null ? message.toLowerCase(Locale.ROOT) : "";
+    int keyStart = key.lastIndexOf("for key");
+    if (keyStart >= 0) {
+      key = key.substring(keyStart);
+    }
+    logger.warn("Duplicate key on register: {}", message);
+    if (key.contains("username")) {
+      return new RuntimeException("用戶名已存在");
+    }
+    if (key.contains("email")) {
+      return new RuntimeException("電子郵件已存在");
+    }
+    if (key.contains("phone")) {
+      return new RuntimeException("手機號碼已存在");
+    }
+    return new RuntimeException("用戶資料已存在");
   }
 
   private void validateUserData(User user) {
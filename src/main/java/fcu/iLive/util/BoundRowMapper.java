@@ -0,0 +1,161 @@
+package fcu.iLive.util;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * 預先編譯的資料列映射器
+ * 欄位與setter在建立時決定，查詢的第一列才依ResultSet的欄位名稱解析出欄位索引，
+ * 之後每一列只以索引讀取，不需反射也不需逐列比對欄位名稱。
+ *
+ * 欄位名稱比對不分大小寫並忽略底線；查詢結果中不存在的欄位會略過，保持物件預設值。
+ * 同一個映射器可在多個執行緒共用，欄位索引以執行緒為單位綁定。
+ *
+ * @param <T> 映射的目標類型
+ */
+public final class BoundRowMapper<T> implements RowMapper<T> {
+
+  private final Supplier<T> factory;
+  private final String[] columnNames;
+  private final List<ColumnReader<T>> readers;
+  private final ThreadLocal<Binding> binding = new ThreadLocal<>();
+
+  private BoundRowMapper(Supplier<T> factory, List<String> columnNames, List<ColumnReader<T>> readers) {
+    this.factory = factory;
+    this.columnNames = columnNames.toArray(new String[0]);
+    this.readers = List.copyOf(readers);
+  }
+
+  public static <T> Builder<T> builder(Supplier<T> factory) {
+    return new Builder<>(factory);
+  }
+
+  @Override
+  public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+    Binding current = binding.get();
+    if (current == null || rowNum == 0 || current.resultSet.get() != rs) {
+      current = bind(rs);
+      binding.set(current);
+    }
+
+    T target = factory.get();
+    int[] indexes = current.indexes;
+    for (int i = 0; i < indexes.length; i++) {
+      if (indexes[i] > 0) {
+        readers.get(i).read(rs, indexes[i], target);
+      }
+    }
+    return target;
+  }
+
+  /**
+   * 依ResultSet的欄位解析每個映射欄位的索引，不存在的欄位為0
+   */
+  private Binding bind(ResultSet rs) throws SQLException {
+    ResultSetMetaData metaData = rs.getMetaData();
+    Map<String, Integer> labels = new HashMap<>();
+    for (int index = 1; index <= metaData.getColumnCount(); index++) {
+      // 同名欄位以第一個為準，與 ResultSet.findColumn 一致
+      labels.putIfAbsent(normalize(metaData.getColumnLabel(index)), index);
+    }
+
+    int[] indexes = new int[columnNames.length];
+    for (int i = 0; i < columnNames.length; i++) {
+      indexes[i] = labels.getOrDefault(columnNames[i], 0);
+    }
+    return new Binding(rs, indexes);
+  }
+
+  private static String normalize(String name) {
+    return name.replace("_", "").toLowerCase(Locale.ROOT);
+  }
+
+  private static final class Binding {
+    private final WeakReference<ResultSet> resultSet;
+    private final int[] indexes;
+
+    private Binding(ResultSet resultSet, int[] indexes) {
+      this.resultSet = new WeakReference<>(resultSet);
+      this.indexes = indexes;
+    }
+  }
+
+  /**
+   * 以索引讀取單一欄位並寫入目標物件
+   */
+  @FunctionalInterface
+  public interface ColumnReader<T> {
+    void read(ResultSet rs, int index, T target) throws SQLException;
+  }
+
+  @FunctionalInterface
+  public interface IntSetter<T> {
+    void set(T target, int value);
+  }
+
+  @FunctionalInterface
+  public interface BooleanSetter<T> {
+    void set(T target, boolean value);
+  }
+
+  public static final class Builder<T> {
+    private final Supplier<T> factory;
+    private final List<String> columnNames = new ArrayList<>();
+    private final List<ColumnReader<T>> readers = new ArrayList<>();
+
+    private Builder(Supplier<T> factory) {
+      this.factory = factory;
+    }
+
+    public Builder<T> column(String name, ColumnReader<T> reader) {
+      columnNames.add(normalize(name));
+      readers.add(reader);
+      return this;
+    }
+
+    public Builder<T> intColumn(String name, IntSetter<T> setter) {
+      return column(name, (rs, index, target) -> setter.set(target, rs.getInt(index)));
+    }
+
+    public Builder<T> booleanColumn(String name, BooleanSetter<T> setter) {
+      return column(name, (rs, index, target) -> setter.set(target, rs.getBoolean(index)));
+    }
+
+    public Builder<T> stringColumn(String name, BiConsumer<T, String> setter) {
+      return column(name, (rs, index, target) -> setter.accept(target, rs.getString(index)));
+    }
+
+    public Builder<T> decimalColumn(String name, BiConsumer<T, BigDecimal> setter) {
+      return column(name, (rs, index, target) -> setter.accept(target, rs.getBigDecimal(index)));
+    }
+
+    public Builder<T> timestampColumn(String name, BiConsumer<T, Timestamp> setter) {
+      return column(name, (rs, index, target) -> setter.accept(target, rs.getTimestamp(index)));
+    }
+
+    public Builder<T> dateTimeColumn(String name, BiConsumer<T, LocalDateTime> setter) {
+      return column(name, (rs, index, target) -> {
+        Timestamp value = rs.getTimestamp(index);
+        setter.accept(target, value != null ? value.toLocalDateTime() : null);
+      });
+    }
+
+    public BoundRowMapper<T> build() {
+      return new BoundRowMapper<>(factory, columnNames, readers);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package fcu.iLive.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 階層式時間輪
+ * 以整數鍵登記到期時間，每一層有固定數量的槽，上一層的一格等於下一層的一整圈；
+ * 到期時間較遠的項目放在上層，時間推進到該格時再逐層下移，
+ * 登記與推進的成本與登記數量無關，不需要定期掃描全部項目。
+ *
+ * 同一個鍵重新登記時以新的到期時間為準，取消只移除登記，舊項目在到期時略過。
+ * 所有方法皆以同步方式保護，供排程執行緒與請求執行緒共用。
+ */
+public class HierarchicalTimingWheel {
+
+  private final long tickMillis;
+  private final int slotBits;
+  private final int slotMask;
+  private final List<Timer>[][] levels;
+
+  // 超出最上層範圍的項目，最上層轉完一圈時重新放入
+  private List<Timer> overflow = new ArrayList<>();
+
+  // 鍵 -> 目前有效的到期時間
+  private final Map<Integer, Long> deadlines = new HashMap<>();
+
+  // 已處理到的刻度（時間 / tickMillis）
+  private long currentTick;
+
+  /**
+   * @param tickMillis 每一格的時間長度
+   * @param slotBits 每一層的槽數為 2^slotBits
+   * @param levelCount 層數
+   * @param startMillis 起始時間
+   */
+  @SuppressWarnings("unchecked")
+  public HierarchicalTimingWheel(long tickMillis, int slotBits, int levelCount, long startMillis) {
+    this.tickMillis = tickMillis;
+    this.slotBits = slotBits;
+    this.slotMask = (1 << slotBits) - 1;
+    this.levels = (List<Timer>[][]) new ArrayList<?>[levelCount][1 << slotBits];
+    this.currentTick = startMillis / tickMillis;
+  }
+
+  /**
+   * 登記或更新鍵的到期時間
+   * @param key 鍵
+   * @param deadlineMillis 到期時間
+   */
+  public synchronized void schedule(int key, long deadlineMillis) {
+    deadlines.put(key, deadlineMillis);
+    place(new Timer(key, deadlineMillis), null);
+  }
+
+  /**
+   * 取消鍵的登記
+   * @param key 鍵
+   * @return 是否有登記
+   */
+  public synchronized boolean cancel(int key) {
+    return deadlines.remove(key) != null;
+  }
+
+  /**
+   * 推進時間，取出所有已到期的鍵
+   * 已到期的鍵同時移除登記
+   * @param nowMillis 目前時間
+   * @return 已到期的鍵
+   */
+  public synchronized List<Integer> advance(long nowMillis) {
+    List<Timer> due = new ArrayList<>();
+    long targetTick = nowMillis / tickMillis;
+
+    while (currentTick < targetTick) {
+      currentTick++;
+
+      // 上層的格子開始時，將該格的項目往下層移動，由上往下處理
+      for (int level = levels.length - 1; level >= 1; level--) {
+        if ((currentTick & ((1L << (slotBits * level)) - 1)) == 0) {
+          if (level == levels.length - 1
+              && (currentTick & ((1L << (slotBits * levels.length)) - 1)) == 0) {
+            List<Timer> pending = overflow;
+            overflow = new ArrayList<>();
+            pending.forEach(timer -> place(timer, due));
+          }
+          int slot = (int) ((currentTick >>> (slotBits * level)) & slotMask);
+          List<Timer> timers = levels[level][slot];
+          if (timers != null) {
+            levels[level][slot] = null;
+            timers.forEach(timer -> place(timer, due));
+          }
+        }
+      }
+
+      int slot = (int) (currentTick & slotMask);
+      List<Timer> timers = levels[0][slot];
+      if (timers != null) {
+        levels[0][slot] = null;
+        due.addAll(timers);
+      }
+    }
+
+    List<Integer> expired = new ArrayList<>();
+    for (Timer timer : due) {
+      // 已取消或已重新登記的項目略過
+      Long deadline = deadlines.get(timer.key);
+      if (deadline != null && deadline == timer.deadline) {
+        deadlines.remove(timer.key);
+        expired.add(timer.key);
+      }
+    }
+    return expired;
+  }
+
+  /**
+   * 目前登記中的鍵數量
+   */
+  public synchronized int size() {
+    return deadlines.size();
+  }
+
+  /**
+   * 將項目放入對應的層與槽，已到期的項目放入due
+   * 建立時due為null，已到期的項目放在下一格，於下次推進時取出
+   */
+  private void place(Timer timer, List<Timer> due) {
+    // 無條件進位，項目不會在到期時間之前取出
+    long tick = (timer.deadline + tickMillis - 1) / tickMillis;
+    if (tick <= currentTick) {
+      if (due != null) {
+        due.add(timer);
+        return;
+      }
+      tick = currentTick + 1;
+    }
+
+    for (int level = 0; level < levels.length; level++) {
+      int pageShift = slotBits * (level + 1);
+      if ((tick >>> pageShift) == (currentTick >>> pageShift)) {
+        int slot = (int) ((tick >>> (slotBits * level)) & slotMask);
+        List<Timer> timers = levels[level][slot];
+        if (timers == null) {
+          timers = new ArrayList<>();
+          levels[level][slot] = timers;
+        }
+        timers.add(timer);
+        return;
+      }
+    }
+    overflow.add(timer);
+  }
+
+  private static final class Timer {
+    private final int key;
+    private final long deadline;
+
+    private Timer(int key, long deadline) {
+      this.key = key;
+      this.deadline = deadline;
+    }
+  }
+}
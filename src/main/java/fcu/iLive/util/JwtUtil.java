@@ -2,6 +2,7 @@ package fcu.iLive.util;
 
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.SignatureException;
@@ -9,6 +10,9 @@ import io.jsonwebtoken.security.Keys;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import fcu.iLive.exception.JwtException;
+import fcu.iLive.exception.TokenExpiredException;
+import fcu.iLive.model.jwt.VerifiedToken;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,6 +27,9 @@ import java.util.function.Function;
 public class JwtUtil {
   private static final Logger logger = LoggerFactory.getLogger(JwtUtil.class);
 
+  // 令牌家族ID的claim名稱
+  private static final String FAMILY_ID_CLAIM = "fid";
+
   @Value("${security.jwt.secret}")
   private String secret;
 
@@ -38,9 +45,37 @@ public class JwtUtil {
   @Value("${jwt.header.name}")
   private String headerName;
 
-  private SecretKey getSigningKey() {
+  // 依 secret 建立的簽章金鑰與解析器，兩者皆不可變且可在多執行緒共用
+  private volatile SecretKey signingKey;
+  private volatile JwtParser jwtParser;
+
+  // 金鑰版本，每次更換 secret 後遞增，驗證結果的快取以此區分新舊金鑰
+  private volatile long keyEpoch;
+
+  @PostConstruct
+  public void init() {
+    rebuildSigningKey();
+  }
+
+  private void rebuildSigningKey() {
     byte[] keyBytes = secret.getBytes(StandardCharsets.UTF_8);
-    return Keys.hmacShaKeyFor(keyBytes);
+    SecretKey key = Keys.hmacShaKeyFor(keyBytes);
+    this.jwtParser = Jwts.parser().verifyWith(key).build();
+    this.signingKey = key;
+    // 最後才遞增，讀到新版本的執行緒必定看到新的解析器
+    keyEpoch++;
+  }
+
+  /**
+   * 取得目前簽章金鑰的版本
+   * @return 金鑰版本，更換 secret 後改變
+   */
+  public long getKeyEpoch() {
+    return keyEpoch;
+  }
+
+  private SecretKey getSigningKey() {
+    return signingKey;
   }
 
   public String getTokenFromHeader(String authHeader) {
@@ -51,14 +86,35 @@ public class JwtUtil {
   }
 
   public String generateAccessToken(int userId) {
-    return generateToken(userId, accessTokenExpiration);
+    return generateToken(userId, accessTokenExpiration, null, null);
+  }
+
+  /**
+   * 產生屬於指定令牌家族的存取令牌，家族被撤銷時令牌即失效
+   * @param userId 用戶ID
+   * @param familyId 令牌家族ID
+   * @return 存取令牌
+   */
+  public String generateAccessToken(int userId, String familyId) {
+    return generateToken(userId, accessTokenExpiration, familyId, null);
   }
 
   public String generateRefreshToken(int userId) {
-    return generateToken(userId, refreshTokenExpiration);
+    return generateToken(userId, refreshTokenExpiration, null, null);
+  }
+
+  /**
+   * 產生可輪替的刷新令牌
+   * @param userId 用戶ID
+   * @param familyId 令牌家族ID
+   * @param tokenId 令牌ID（jti）
+   * @return 刷新令牌
+   */
+  public String generateRefreshToken(int userId, String familyId, String tokenId) {
+    return generateToken(userId, refreshTokenExpiration, familyId, tokenId);
   }
 
-  private String generateToken(int userId, Long expiration) {
+  private String generateToken(int userId, Long expiration, String familyId, String tokenId) {
     if (expiration == null) {
       logger.error("Token expiration is null");
       throw new JwtException("Token expiration not configured");
@@ -66,12 +122,16 @@ public class JwtUtil {
 
     Map<String, Object> claims = new HashMap<>();
     claims.put("userId", userId);
+    if (familyId != null) {
+      claims.put(FAMILY_ID_CLAIM, familyId);
+    }
 
     Date now = new Date();
     Date expiryDate = new Date(now.getTime() + expiration * 1000);
 
     return Jwts.builder()
             .setClaims(claims)
+            .setId(tokenId)
             .setSubject(String.valueOf(userId))
             .setIssuedAt(now)
             .setExpiration(expiryDate)
@@ -80,23 +140,39 @@ public class JwtUtil {
   }
 
   public String refreshAccessToken(String refreshToken) {
-    if (isTokenExpired(refreshToken)) {
+    try {
+      return generateAccessToken(verifyToken(refreshToken).getUserId());
+    } catch (TokenExpiredException e) {
       logger.warn("Refresh token has expired");
       throw new JwtException("刷新令牌已過期");
     }
-    int userId = getUserIdFromToken(refreshToken);
-    return generateAccessToken(userId);
   }
 
-  public int getUserIdFromToken(String token) {
+  /**
+   * 驗證令牌並取得用戶ID與過期時間
+   * 只做一次簽章驗證，過期的令牌會拋出 TokenExpiredException
+   * @param token JWT令牌
+   * @return 驗證後的令牌內容
+   */
+  public VerifiedToken verifyToken(String token) {
     Claims claims = getAllClaimsFromToken(token);
-    return claims.get("userId", Integer.class);
+    Integer userId = claims.get("userId", Integer.class);
+    if (userId == null) {
+      throw new JwtException("令牌驗證失敗");
+    }
+    return new VerifiedToken(userId, claims.getExpiration(),
+        claims.get(FAMILY_ID_CLAIM, String.class), claims.getId());
+  }
+
+  public int getUserIdFromToken(String token) {
+    return verifyToken(token).getUserId();
   }
 
   public Boolean isTokenExpired(String token) {
     try {
-      final Date expiration = getExpirationDateFromToken(token);
-      return expiration.before(new Date());
+      return verifyToken(token).isExpired();
+    } catch (TokenExpiredException e) {
+      return true;
     } catch (Exception e) {
       logger.error("Error checking token expiration", e);
       return true;
@@ -105,8 +181,7 @@ public class JwtUtil {
 
   public boolean validateToken(String token, int userId) {
     try {
-      final int tokenUserId = getUserIdFromToken(token);
-      return tokenUserId == userId && !isTokenExpired(token);
+      return verifyToken(token).getUserId() == userId;
     } catch (Exception e) {
       logger.error("Token validation failed", e);
       return false;
@@ -114,12 +189,12 @@ public class JwtUtil {
   }
 
   public boolean validateRefreshToken(String refreshToken) {
+    if (refreshToken == null) {
+      return false;
+    }
     try {
-      if (refreshToken == null) {
-        return false;
-      }
-      Claims claims = getAllClaimsFromToken(refreshToken);
-      return !isTokenExpired(refreshToken);
+      verifyToken(refreshToken);
+      return true;
     } catch (Exception e) {
       logger.error("Refresh token validation failed", e);
       return false;
@@ -137,14 +212,12 @@ public class JwtUtil {
 
   private Claims getAllClaimsFromToken(String token) {
     try {
-      return Jwts.parser()
-              .verifyWith(getSigningKey())
-              .build()
+      return jwtParser
               .parseSignedClaims(token)
               .getPayload();
     } catch (ExpiredJwtException e) {
-      logger.error("Token has expired", e);
-      throw new JwtException("令牌已過期");
+      logger.warn("Token has expired: {}", e.getMessage());
+      throw new TokenExpiredException("令牌已過期");
     } catch (SignatureException e) {
       logger.error("Invalid token signature", e);
       throw new JwtException("無效的令牌簽名");
@@ -159,6 +232,7 @@ public class JwtUtil {
       throw new IllegalArgumentException("Secret key cannot be null or empty");
     }
     this.secret = secret;
+    rebuildSigningKey();
     logger.debug("JWT secret key has been updated");
   }
 
@@ -170,6 +244,10 @@ public class JwtUtil {
     logger.debug("Access token expiration has been set to: {} seconds", accessTokenExpiration);
   }
 
+  public Long getRefreshTokenExpiration() {
+    return refreshTokenExpiration;
+  }
+
   public void setRefreshTokenExpiration(Long refreshTokenExpiration) {
     if (refreshTokenExpiration == null || refreshTokenExpiration <= 0) {
       throw new IllegalArgumentException("Refresh token expiration must be a positive value");
@@ -0,0 +1,109 @@
+package fcu.iLive.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fcu.iLive.exception.RateLimitExceededException;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 登入頻率限制
+ * 分別以用戶名與用戶端IP為單位的令牌桶，在密碼雜湊之前拒絕過量的登入嘗試。
+ *
+ * 令牌桶以 GCRA 實作，每個桶只保存一個理論到達時間（AtomicLong），以CAS更新不需加鎖；
+ * 桶存放在有容量上限、閒置後自動淘汰的快取中，大量不同的用戶名或IP不會無限佔用記憶體。
+ */
+@Component
+public class LoginRateLimiter {
+
+  // 每個用戶名每分鐘可補充的嘗試次數與可連續嘗試的次數
+  @Value("${security.login.rate-limit.username.per-minute:10}")
+  private int usernamePerMinute;
+
+  @Value("${security.login.rate-limit.username.burst:5}")
+  private int usernameBurst;
+
+  // 每個IP每分鐘可補充的嘗試次數與可連續嘗試的次數
+  @Value("${security.login.rate-limit.ip.per-minute:60}")
+  private int ipPerMinute;
+
+  @Value("${security.login.rate-limit.ip.burst:20}")
+  private int ipBurst;
+
+  @Value("${security.login.rate-limit.max-keys:100000}")
+  private long maxKeys;
+
+  private Limiter usernameLimiter;
+  private Limiter ipLimiter;
+
+  @PostConstruct
+  public void init() {
+    usernameLimiter = new Limiter(usernamePerMinute, usernameBurst, maxKeys);
+    ipLimiter = new Limiter(ipPerMinute, ipBurst, maxKeys);
+  }
+
+  /**
+   * 取得一次登入嘗試的額度
+   * 先檢查IP再檢查用戶名，IP被拒絕時不會消耗該用戶名的額度
+   * @param username 用戶名
+   * @param clientIp 用戶端IP
+   * @throws RateLimitExceededException 超過限制時拋出
+   */
+  public void acquire(String username, String clientIp) {
+    long now = System.nanoTime();
+    long ipWait = ipLimiter.tryAcquire(clientIp, now);
+    if (ipWait > 0) {
+      throw rejected(ipWait);
+    }
+    long usernameWait = usernameLimiter.tryAcquire(username.toLowerCase(Locale.ROOT), now);
+    if (usernameWait > 0) {
+      throw rejected(usernameWait);
+    }
+  }
+
+  private static RateLimitExceededException rejected(long waitNanos) {
+    long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    return new RateLimitExceededException("登入嘗試次數過多，請稍後再試", seconds);
+  }
+
+  private static final class Limiter {
+    // 補充一個令牌所需的時間
+    private final long emissionInterval;
+    // 可提前使用的時間，即 (burst - 1) 個令牌
+    private final long tolerance;
+    private final Cache<String, AtomicLong> buckets;
+
+    private Limiter(int perMinute, int burst, long maxKeys) {
+      this.emissionInterval = TimeUnit.MINUTES.toNanos(1) / Math.max(1, perMinute);
+      this.tolerance = emissionInterval * (Math.max(1, burst) - 1);
+      // 閒置超過桶補滿所需時間後，桶的狀態與新建的桶相同，可以淘汰
+      this.buckets = Caffeine.newBuilder()
+          .maximumSize(maxKeys)
+          .expireAfterAccess(emissionInterval + tolerance, TimeUnit.NANOSECONDS)
+          .build();
+    }
+
+    /**
+     * @return 0 表示允許，否則為需要等待的奈秒數
+     */
+    private long tryAcquire(String key, long now) {
+      AtomicLong arrival = buckets.get(key, k -> new AtomicLong(now));
+      while (true) {
+        long current = arrival.get();
+        long tat = Math.max(current, now);
+        long wait = tat - tolerance - now;
+        if (wait > 0) {
+          return wait;
+        }
+        if (arrival.compareAndSet(current, tat + emissionInterval)) {
+          return 0;
+        }
+      }
+    }
+  }
+}
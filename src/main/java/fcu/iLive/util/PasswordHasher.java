@@ -0,0 +1,92 @@
+package fcu.iLive.util;
+
+import fcu.iLive.exception.ServiceUnavailableException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 密碼雜湊工具
+ * BCrypt 運算在專用的固定大小執行緒池執行，不佔用 Tomcat 請求執行緒；
+ * 佇列滿時立即拋出 ServiceUnavailableException，由呼叫端回傳 503。
+ */
+public class PasswordHasher {
+
+  private final BCryptPasswordEncoder encoder;
+  private final int strength;
+  private final ThreadPoolExecutor executor;
+
+  public PasswordHasher(BCryptPasswordEncoder encoder, int strength, int threads, int queueCapacity) {
+    this.encoder = encoder;
+    this.strength = strength;
+
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "password-hash-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  /**
+   * 非同步產生密碼雜湊
+   * @param rawPassword 明文密碼
+   * @return 雜湊值
+   * @throws ServiceUnavailableException 雜湊佇列已滿時拋出
+   */
+  public CompletableFuture<String> encode(String rawPassword) {
+    try {
+      return CompletableFuture.supplyAsync(() -> encoder.encode(rawPassword), executor);
+    } catch (RejectedExecutionException e) {
+      throw new ServiceUnavailableException("系統忙碌中，請稍後再試");
+    }
+  }
+
+  /**
+   * 非同步比對密碼
+   * @param rawPassword 明文密碼
+   * @param passwordHash 儲存的雜湊值
+   * @return 是否相符
+   * @throws ServiceUnavailableException 雜湊佇列已滿時拋出
+   */
+  public CompletableFuture<Boolean> matches(String rawPassword, String passwordHash) {
+    try {
+      return CompletableFuture.supplyAsync(() -> encoder.matches(rawPassword, passwordHash), executor);
+    } catch (RejectedExecutionException e) {
+      throw new ServiceUnavailableException("系統忙碌中，請稍後再試");
+    }
+  }
+
+  /**
+   * 檢查雜湊值的成本是否與目前設定不同，不同時應在登入成功後重新雜湊
+   * @param passwordHash 儲存的雜湊值，格式為 $2a$10$...
+   * @return 是否需要重新雜湊
+   */
+  public boolean needsRehash(String passwordHash) {
+    if (passwordHash == null || passwordHash.length() < 7 || passwordHash.charAt(0) != '$') {
+      return false;
+    }
+    try {
+      int cost = Integer.parseInt(passwordHash.substring(4, 6));
+      return cost != strength;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  public int getStrength() {
+    return strength;
+  }
+
+  public void shutdown() {
+    executor.shutdown();
+  }
+}
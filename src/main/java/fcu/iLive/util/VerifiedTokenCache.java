@@ -0,0 +1,108 @@
+package fcu.iLive.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import fcu.iLive.model.jwt.VerifiedToken;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已驗證令牌快取
+ * 以令牌的 SHA-256 摘要及簽章金鑰版本為鍵，保存驗證後的用戶ID與過期時間，
+ * 同一令牌重複使用時不需再做 Base64 解碼與簽章驗證。
+ * 更換 secret 後金鑰版本改變，舊金鑰的驗證結果不再命中，令牌須以新金鑰重新驗證
+ * 每筆資料最晚在令牌過期時淘汰，命中率透過 actuator 的 cache.* 指標公開（name=jwt-tokens）
+ */
+@Component
+public class VerifiedTokenCache {
+
+  @Autowired
+  private JwtUtil jwtUtil;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${jwt.cache.max-size:10000}")
+  private long maxSize;
+
+  private Cache<ByteBuffer, VerifiedToken> cache;
+
+  @PostConstruct
+  public void init() {
+    cache = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfter(new Expiry<ByteBuffer, VerifiedToken>() {
+          @Override
+          public long expireAfterCreate(ByteBuffer key, VerifiedToken value, long currentTime) {
+            return remainingNanos(value);
+          }
+
+          @Override
+          public long expireAfterUpdate(ByteBuffer key, VerifiedToken value, long currentTime,
+                                        long currentDuration) {
+            return remainingNanos(value);
+          }
+
+          @Override
+          public long expireAfterRead(ByteBuffer key, VerifiedToken value, long currentTime,
+                                      long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "jwt-tokens");
+  }
+
+  /**
+   * 驗證令牌，已驗證過且未過期的令牌直接由快取取得
+   * @param token JWT令牌
+   * @return 驗證後的令牌內容
+   */
+  public VerifiedToken verify(String token) {
+    // 先取金鑰版本再驗證，驗證期間更換金鑰時結果只會存入舊版本的鍵
+    ByteBuffer key = digest(token, jwtUtil.getKeyEpoch());
+    VerifiedToken cached = cache.getIfPresent(key);
+    if (cached != null && !cached.isExpired()) {
+      return cached;
+    }
+
+    VerifiedToken verified = jwtUtil.verifyToken(token);
+    cache.put(key, verified);
+    return verified;
+  }
+
+  /**
+   * 移除令牌的快取
+   * @param token JWT令牌
+   */
+  public void invalidate(String token) {
+    cache.invalidate(digest(token, jwtUtil.getKeyEpoch()));
+  }
+
+  private static long remainingNanos(VerifiedToken token) {
+    long remainingMillis = token.getExpiration().getTime() - System.currentTimeMillis();
+    return TimeUnit.MILLISECONDS.toNanos(Math.max(0, remainingMillis));
+  }
+
+  private static ByteBuffer digest(String token, long keyEpoch) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] hash = digest.digest(token.getBytes(StandardCharsets.US_ASCII));
+      return ByteBuffer.allocate(hash.length + Long.BYTES).put(hash).putLong(keyEpoch).flip();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+  }
+}
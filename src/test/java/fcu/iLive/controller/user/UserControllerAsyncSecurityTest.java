@@ -0,0 +1,92 @@
+package fcu.iLive.controller.user;
+
+import fcu.iLive.config.SecurityConfig;
+import fcu.iLive.model.jwt.VerifiedToken;
+import fcu.iLive.service.user.RefreshTokenStore;
+import fcu.iLive.service.user.UserService;
+import fcu.iLive.util.JwtUtil;
+import fcu.iLive.util.LoginRateLimiter;
+import fcu.iLive.util.VerifiedTokenCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * 需要認證的非同步端點測試
+ * 回應在 ASYNC 分派送出，JWT過濾器不處理該分派，授權規則須允許後續分派
+ */
+@WebMvcTest(UserController.class)
+@Import(SecurityConfig.class)
+@TestPropertySource(properties = "spring.web.cors.allowed-origins=http://localhost:8080")
+class UserControllerAsyncSecurityTest {
+
+  private static final String TOKEN = "access-token";
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @MockBean
+  private UserService userService;
+
+  @MockBean
+  private JwtUtil jwtUtil;
+
+  @MockBean
+  private VerifiedTokenCache tokenCache;
+
+  @MockBean
+  private RefreshTokenStore refreshTokenStore;
+
+  @MockBean
+  private LoginRateLimiter loginRateLimiter;
+
+  @BeforeEach
+  void authenticate() {
+    given(jwtUtil.getTokenFromHeader(anyString())).willReturn(TOKEN);
+    given(tokenCache.verify(TOKEN))
+        .willReturn(new VerifiedToken(1, new Date(System.currentTimeMillis() + 60_000), null, null));
+  }
+
+  @Test
+  void changePasswordCompletesOnAsyncDispatch() throws Exception {
+    given(userService.changePassword(1, "old-password", "new-password"))
+        .willReturn(CompletableFuture.completedFuture(null));
+
+    MvcResult started = mockMvc.perform(put("/api/v1/users/1/password")
+            .header("Authorization", "Bearer " + TOKEN)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"oldPassword\":\"old-password\",\"newPassword\":\"new-password\"}"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(started))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.message").value("密碼修改成功"));
+  }
+
+  @Test
+  void changePasswordRequiresTokenOnInitialRequest() throws Exception {
+    mockMvc.perform(put("/api/v1/users/1/password")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"oldPassword\":\"old-password\",\"newPassword\":\"new-password\"}"))
+        .andExpect(status().isUnauthorized());
+  }
+}
@@ -0,0 +1,118 @@
+package fcu.iLive.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 預先編譯的資料列映射器測試
+ * ResultSet 與 ResultSetMetaData 以 mock 模擬，不需資料庫
+ */
+class BoundRowMapperTest {
+
+  private final BoundRowMapper<Item> mapper = BoundRowMapper.builder(Item::new)
+      .intColumn("ItemID", Item::setId)
+      .stringColumn("Name", Item::setName)
+      .decimalColumn("Unit_Price", Item::setPrice)
+      .build();
+
+  @Test
+  void skipsColumnsMissingFromPartialProjection() throws SQLException {
+    ResultSet rs = resultSet("NAME", "ItemID");
+    when(rs.getInt(2)).thenReturn(7);
+    when(rs.getString(1)).thenReturn("筆記本");
+
+    Item item = mapper.mapRow(rs, 0);
+
+    assertEquals(7, item.getId());
+    assertEquals("筆記本", item.getName());
+    assertNull(item.getPrice());
+    verify(rs, never()).getBigDecimal(anyInt());
+  }
+
+  @Test
+  void resolvesColumnIndexesOncePerResultSet() throws SQLException {
+    ResultSet rs = resultSet("ItemID", "unitprice");
+    when(rs.getInt(1)).thenReturn(1, 2, 3);
+    when(rs.getBigDecimal(2)).thenReturn(new BigDecimal("9.90"));
+
+    for (int row = 0; row < 3; row++) {
+      assertEquals(row + 1, mapper.mapRow(rs, row).getId());
+    }
+    verify(rs, times(1)).getMetaData();
+  }
+
+  @Test
+  void rebindsForNextResultSetWithDifferentColumns() throws SQLException {
+    ResultSet first = resultSet("ItemID", "Name", "UnitPrice");
+    when(first.getInt(1)).thenReturn(1);
+    when(first.getString(2)).thenReturn("第一筆");
+    when(first.getBigDecimal(3)).thenReturn(new BigDecimal("10.00"));
+    mapper.mapRow(first, 0);
+    mapper.mapRow(first, 1);
+
+    // 第二個查詢的欄位順序不同，列號也不從0開始時仍需依新的ResultSet重新解析
+    ResultSet second = resultSet("UnitPrice", "ItemID");
+    when(second.getBigDecimal(1)).thenReturn(new BigDecimal("20.00"));
+    when(second.getInt(2)).thenReturn(2);
+    Item item = mapper.mapRow(second, 5);
+
+    assertEquals(2, item.getId());
+    assertEquals(new BigDecimal("20.00"), item.getPrice());
+    assertNull(item.getName());
+    verify(second, never()).getString(anyInt());
+  }
+
+  private static ResultSet resultSet(String... labels) throws SQLException {
+    ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+    when(metaData.getColumnCount()).thenReturn(labels.length);
+    for (int i = 0; i < labels.length; i++) {
+      when(metaData.getColumnLabel(i + 1)).thenReturn(labels[i]);
+    }
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.getMetaData()).thenReturn(metaData);
+    return rs;
+  }
+
+  private static final class Item {
+    private int id;
+    private String name;
+    private BigDecimal price;
+
+    int getId() {
+      return id;
+    }
+
+    void setId(int id) {
+      this.id = id;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    void setName(String name) {
+      this.name = name;
+    }
+
+    BigDecimal getPrice() {
+      return price;
+    }
+
+    void setPrice(BigDecimal price) {
+      this.price = price;
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package fcu.iLive.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 階層式時間輪測試
+ * 時間一律由測試傳入，不依賴系統時鐘
+ */
+class HierarchicalTimingWheelTest {
+
+  private static final long TICK = 1000;
+  private static final long START = 1_700_000_000_000L;
+
+  @Test
+  void firesOnFirstTickAtOrAfterDeadline() {
+    HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(TICK, 6, 3, START);
+    wheel.schedule(1, START + 1500);
+
+    assertTrue(wheel.advance(START + 1000).isEmpty());
+    assertTrue(wheel.advance(START + 1999).isEmpty());
+    assertEquals(List.of(1), wheel.advance(START + 2000));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  void pastDeadlineFiresOnNextAdvance() {
+    HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(TICK, 6, 3, START);
+    wheel.schedule(1, START - 60_000);
+
+    assertEquals(List.of(1), wheel.advance(START + TICK));
+  }
+
+  @Test
+  void cascadesAcrossLevelBoundaries() {
+    // 每層4格，兩層共16格
+    HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(TICK, 2, 2, 0);
+    long[] deadlineTicks = {1, 3, 4, 5, 15, 16, 17, 31, 32, 63, 64, 65};
+    for (int i = 0; i < deadlineTicks.length; i++) {
+      wheel.schedule(i, deadlineTicks[i] * TICK);
+    }
+
+    for (long tick = 1; tick <= 70; tick++) {
+      List<Integer> expired = wheel.advance(tick * TICK);
+      List<Integer> expected = new ArrayList<>();
+      for (int i = 0; i < deadlineTicks.length; i++) {
+        if (deadlineTicks[i] == tick) {
+          expected.add(i);
+        }
+      }
+      assertEquals(expected, sorted(expired), "tick " + tick);
+    }
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  void overflowBeyondTopLevelFiresOnTime() {
+    // 每層64格、三層、1秒一格約涵蓋3天，4天後的到期時間先放入溢出清單
+    HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(TICK, 6, 3, START);
+    long deadline = START + 4L * 24 * 3600 * 1000;
+    wheel.schedule(1, deadline);
+    wheel.schedule(2, START + 10 * TICK);
+
+    assertEquals(List.of(2), wheel.advance(START + 10 * TICK));
+    assertTrue(wheel.advance(deadline - TICK).isEmpty());
+    assertEquals(List.of(1), wheel.advance(deadline));
+  }
+
+  @Test
+  void cancelledKeyDoesNotFire() {
+    HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(TICK, 6, 3, START);
+    wheel.schedule(1, START + 5 * TICK);
+    wheel.schedule(2, START + 5 * TICK);
+
+    assertTrue(wheel.cancel(1));
+    assertFalse(wheel.cancel(1));
+    assertEquals(List.of(2), wheel.advance(START + 5 * TICK));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  void rescheduleUsesLatestDeadline() {
+    HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(TICK, 6, 3, START);
+    wheel.schedule(1, START + 5 * TICK);
+    wheel.schedule(1, START + 100 * TICK);
+    wheel.schedule(2, START + 100 * TICK);
+    wheel.schedule(2, START + 3 * TICK);
+
+    assertEquals(List.of(2), wheel.advance(START + 5 * TICK));
+    assertTrue(wheel.advance(START + 99 * TICK).isEmpty());
+    assertEquals(List.of(1), wheel.advance(START + 100 * TICK));
+  }
+
+  @Test
+  void matchesBruteForceForRandomDeadlines() {
+    // 小型時間輪讓大部分項目經過多次下移與溢出
+    HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(TICK, 2, 3, 0);
+    Random random = new Random(42);
+    Map<Integer, Long> deadlines = new HashMap<>();
+    for (int key = 0; key < 500; key++) {
+      long deadline = random.nextInt(400 * (int) TICK);
+      deadlines.put(key, deadline);
+      wheel.schedule(key, deadline);
+    }
+
+    long now = 0;
+    while (now < 400 * TICK + TICK) {
+      now += 1 + random.nextInt(3 * (int) TICK);
+      long reached = now / TICK * TICK;
+      List<Integer> expected = new ArrayList<>();
+      for (Map.Entry<Integer, Long> entry : deadlines.entrySet()) {
+        if (entry.getValue() <= reached) {
+          expected.add(entry.getKey());
+        }
+      }
+      expected.forEach(deadlines::remove);
+      assertEquals(sorted(expected), sorted(wheel.advance(now)), "now " + now);
+    }
+    assertEquals(0, wheel.size());
+  }
+
+  private static List<Integer> sorted(List<Integer> keys) {
+    List<Integer> copy = new ArrayList<>(keys);
+    copy.sort(null);
+    return copy;
+  }
+}